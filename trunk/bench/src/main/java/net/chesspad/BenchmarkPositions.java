@@ -0,0 +1,77 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.chesspad;
+
+import java.util.Random;
+
+/**
+ * Positions and games shared by the benchmarks
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class BenchmarkPositions {
+
+	static final String OPENING = "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3";
+	static final String MIDDLEGAME = "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+	static final String ENDGAME = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+
+	private BenchmarkPositions() {
+	}
+
+	/**
+	 * @param name "opening", "middlegame" or "endgame"
+	 */
+	static String fen(String name) {
+		if (name.equals("opening"))
+			return OPENING;
+		if (name.equals("middlegame"))
+			return MIDDLEGAME;
+		if (name.equals("endgame"))
+			return ENDGAME;
+		throw new IllegalArgumentException(name);
+	}
+
+	/**
+	 * @return a game of random legal moves from the start position ; moves
+	 * that leave the opponent without a legal move are avoided so the game
+	 * reaches the requested length
+	 */
+	static Game randomGame(int plies, long seed) {
+		final Random random = new Random(seed);
+		final Game game = new Game();
+		final Position position = (Position) game.getStartPosition().clone();
+		final MoveList moves = new MoveList();
+		final MoveList replies = new MoveList();
+		while (game.getMoves().size() < plies) {
+			position.generateLegalMoves(moves);
+			int move = Move.NONE;
+			for (int tries = 0; tries < moves.size(); tries++) {
+				move = moves.get(random.nextInt(moves.size()));
+				position.makeMove(move);
+				position.generateLegalMoves(replies);
+				if (replies.size() > 0)
+					break;
+				position.unmakeMove(move);
+				move = Move.NONE;
+			}
+			if (move == Move.NONE)
+				throw new IllegalStateException("no move found after " + game.getMoves().size() + " plies");
+			game.playMove(new Move(move));
+		}
+		return game;
+	}
+}
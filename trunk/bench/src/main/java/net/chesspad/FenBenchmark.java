@@ -0,0 +1,87 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Measures how many FEN strings per second Position parses and writes.
+ * Usage : FenBenchmark [seconds per measure]
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class FenBenchmark {
+
+	private static final String FENS[] = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+			"rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 3" };
+
+	private FenBenchmark() {
+	}
+
+	public static void main(String args[]) {
+		final long millis = (args.length > 0) ? Long.parseLong(args[0]) * 1000 : 3000;
+		final Position position = new Position();
+		final StringBuilder fen = new StringBuilder(90);
+
+		// warm up the JIT before measuring
+		parse(position, 1000);
+		write(position, fen, 1000);
+
+		System.out.println("Parsed: " + perSecond(position, fen, millis, true) + " FEN/s");
+		System.out.println("Written: " + perSecond(position, fen, millis, false) + " FEN/s");
+	}
+
+	private static long perSecond(Position position, StringBuilder fen, long millis,
+			boolean parse) {
+		long count = 0;
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			if (parse)
+				parse(position, 1000);
+			else
+				write(position, fen, 1000);
+			count += 1000;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < millis * 1000000);
+		return count * 1000000000 / elapsed;
+	}
+
+	private static void parse(Position position, int count) {
+		for (int i = 0; i < count; i++)
+			if (!position.setFEN(FENS[i % FENS.length]))
+				throw new IllegalStateException(FENS[i % FENS.length]);
+	}
+
+	private static void write(Position position, StringBuilder fen, int count) {
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			if (i % 100 == 0)
+				position.setFEN(FENS[(i / 100) % FENS.length]);
+			fen.setLength(0);
+			position.appendFEN(fen);
+			length += fen.length();
+		}
+		if (length == 0)
+			throw new IllegalStateException();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.chesspad;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Game.getCurrentPosition on long games, at the end of the game and after
+ * going back half way
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+
+	@Param({ "100", "500", "2000" })
+	public int plies;
+
+	private Game game;
+	private Game halfWayGame;
+
+	@Setup
+	public void setup() {
+		game = BenchmarkPositions.randomGame(plies, 1);
+		halfWayGame = BenchmarkPositions.randomGame(plies, 1);
+		for (int i = 0; i < plies / 2; i++)
+			halfWayGame.back();
+	}
+
+	@Benchmark
+	public Position getCurrentPosition() {
+		return game.getCurrentPosition();
+	}
+
+	@Benchmark
+	public Position getCurrentPositionHalfWay() {
+		return halfWayGame.getCurrentPosition();
+	}
+}
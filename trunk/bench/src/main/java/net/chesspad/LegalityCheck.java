@@ -0,0 +1,113 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.chesspad;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Differential test of Position.isPseudoLegal and Position.isLegal against
+ * the full move generators, on every position of the perft suite tree up to
+ * a depth. The candidate moves are all the piece / square / captured piece /
+ * promotion combinations of the side to play, plus the moves of the
+ * previous positions, which mostly no longer fit.
+ * Usage : LegalityCheck [depth]
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class LegalityCheck {
+
+	private static final int STALE_MOVES = 1024;
+
+	private final MoveList legal = new MoveList();
+	private final MoveList pseudoLegal = new MoveList();
+	private final int staleMoves[] = new int[STALE_MOVES];
+	private int staleCount;
+	private long checks, errors;
+
+	private LegalityCheck() {
+	}
+
+	public static void main(String args[]) throws IOException {
+		final int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+		final LegalityCheck check = new LegalityCheck();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				LegalityCheck.class.getResourceAsStream("/perftsuite.epd"), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.trim().length() > 0)
+					check.walk(new Position(line.split(";")[0].trim()), depth);
+		} finally {
+			reader.close();
+		}
+		System.out.println(check.checks + " moves checked, " + check.errors + " errors");
+		System.exit(check.errors == 0 ? 0 : 1);
+	}
+
+	private void walk(Position position, int depth) {
+		checkPosition(position);
+		if (depth == 0)
+			return;
+		final MoveList moves = new MoveList();
+		position.generateLegalMoves(moves);
+		for (int i = 0; i < moves.size(); i++) {
+			position.makeMove(moves.get(i));
+			walk(position, depth - 1);
+			position.unmakeMove(moves.get(i));
+		}
+	}
+
+	private void checkPosition(Position position) {
+		position.generateLegalMoves(legal);
+		position.generatePseudoLegalMoves(pseudoLegal, false);
+		final int offset = position.sideToPlay() ? 0 : Position.B_PAWN - Position.W_PAWN;
+		final int enemyPawn = position.sideToPlay() ? Position.B_PAWN : Position.W_PAWN;
+
+		for (int from = 0; from < 64; from++) {
+			final int piece = position.pieceAt(from);
+			if (piece == Position.EMPTY || position.blackPieceAt(from) == position.sideToPlay())
+				continue;
+			for (int to = 0; to < 64; to++) {
+				check(position, Move.pack(piece, from, to, position.pieceAt(to), Position.EMPTY));
+				check(position, Move.pack(piece, from, to, enemyPawn, Position.EMPTY));
+				for (int promotion = Position.W_KNIGHT; promotion <= Position.W_QUEEN; promotion++) {
+					check(position, Move.pack(piece, from, to, position.pieceAt(to), promotion + offset));
+					check(position, Move.pack(piece, from, to, position.pieceAt(to),
+							promotion + Position.B_PAWN - Position.W_PAWN - offset));
+				}
+			}
+		}
+		for (int i = 0; i < Math.min(staleCount, STALE_MOVES); i++)
+			check(position, staleMoves[i]);
+		for (int i = 0; i < legal.size(); i++)
+			staleMoves[staleCount++ % STALE_MOVES] = legal.get(i);
+	}
+
+	private void check(Position position, int move) {
+		checks++;
+		final boolean isLegal = position.isLegal(move);
+		final boolean isPseudoLegal = position.isPseudoLegal(move);
+		if (isLegal != legal.contains(move) || isPseudoLegal != pseudoLegal.contains(move)) {
+			errors++;
+			if (errors <= 20)
+				System.out.println(position.getFEN() + " " + Move.toString(move) + " (" + move
+						+ "): isLegal " + isLegal + ", isPseudoLegal " + isPseudoLegal);
+		}
+	}
+}
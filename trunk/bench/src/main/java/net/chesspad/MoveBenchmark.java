@@ -0,0 +1,86 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.chesspad;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Move parsing and notation, for all the legal moves of a position
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+
+	@Param({ "opening", "middlegame", "endgame" })
+	public String phase;
+
+	private Position position;
+	private int moves[];
+	private String moveStrings[];
+
+	@Setup
+	public void setup() {
+		position = new Position(BenchmarkPositions.fen(phase));
+		final MoveList list = new MoveList();
+		position.generateLegalMoves(list);
+		moves = new int[list.size()];
+		moveStrings = new String[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			moves[i] = list.get(i);
+			moveStrings[i] = Move.toString(moves[i]);
+		}
+	}
+
+	/**
+	 * Parses the UCI string of every legal move
+	 */
+	@Benchmark
+	public void parseMove(Blackhole blackhole) {
+		for (final String s : moveStrings)
+			blackhole.consume(new Move(s, position));
+	}
+
+	/**
+	 * Standard algebraic notation of every legal move. The notation is
+	 * cached in the Move, so each call uses a new Move ; the position is
+	 * left unchanged, so it is not copied
+	 */
+	@Benchmark
+	public void toAlgebraicNotation(Blackhole blackhole) {
+		for (final int move : moves)
+			blackhole.consume(new Move(move).toAlgebraicNotation(position));
+	}
+}
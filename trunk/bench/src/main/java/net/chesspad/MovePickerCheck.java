@@ -0,0 +1,112 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Differential test of MovePicker against Position.generateLegalMoves, on
+ * every position of the perft suite tree up to a depth : the picker must
+ * return each legal move exactly once, the hint first when it is legal.
+ * The hints tried are no move, each legal move, and moves of the previous
+ * positions, which mostly no longer fit.
+ * Usage : MovePickerCheck [depth]
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class MovePickerCheck {
+
+	private static final int STALE_MOVES = 16;
+
+	private final MoveList legal = new MoveList();
+	private final MoveList picked = new MoveList();
+	private final int staleMoves[] = new int[STALE_MOVES];
+	private int staleCount;
+	private long checks, errors;
+
+	private MovePickerCheck() {
+	}
+
+	public static void main(String args[]) throws IOException {
+		final int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+		final MovePickerCheck check = new MovePickerCheck();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				MovePickerCheck.class.getResourceAsStream("/perftsuite.epd"), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.trim().length() > 0)
+					check.walk(new Position(line.split(";")[0].trim()), depth);
+		} finally {
+			reader.close();
+		}
+		System.out.println(check.checks + " hints checked, " + check.errors + " errors");
+		System.exit(check.errors == 0 ? 0 : 1);
+	}
+
+	private void walk(Position position, int depth) {
+		checkPosition(position);
+		if (depth == 0)
+			return;
+		final MoveList moves = new MoveList();
+		position.generateLegalMoves(moves);
+		for (int i = 0; i < moves.size(); i++) {
+			position.makeMove(moves.get(i));
+			walk(position, depth - 1);
+			position.unmakeMove(moves.get(i));
+		}
+	}
+
+	private void checkPosition(Position position) {
+		position.generateLegalMoves(legal);
+		final MovePicker picker = new MovePicker(position);
+		check(position, picker, Move.NONE);
+		for (int i = 0; i < legal.size(); i++)
+			check(position, picker, legal.get(i));
+		for (int i = 0; i < Math.min(staleCount, STALE_MOVES); i++)
+			check(position, picker, staleMoves[i]);
+		for (int i = 0; i < legal.size(); i++)
+			staleMoves[staleCount++ % STALE_MOVES] = legal.get(i);
+	}
+
+	private void check(Position position, MovePicker picker, int hint) {
+		checks++;
+		picker.reset(hint);
+		picked.clear();
+		String error = null;
+		int move;
+		while (error == null && (move = picker.next()) != Move.NONE) {
+			if (picked.contains(move))
+				error = "duplicate " + Move.toString(move);
+			else if (!legal.contains(move))
+				error = "illegal " + Move.toString(move);
+			else if (picked.size() == 0 && legal.contains(hint) && move != hint)
+				error = "hint not first";
+			picked.add(move);
+		}
+		if (error == null && picked.size() != legal.size())
+			error = picked.size() + " moves instead of " + legal.size();
+		if (error != null) {
+			errors++;
+			if (errors <= 20)
+				System.out.println(position.getFEN() + " hint " + Move.toString(hint) + ": " + error);
+		}
+	}
+}
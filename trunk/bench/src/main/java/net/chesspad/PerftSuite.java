@@ -0,0 +1,193 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Vector;
+
+/**
+ * Runs a perft suite in EPD format, one position per line followed by the
+ * expected node counts : "fen ;D1 20 ;D2 400 ...".
+ * Reports pass/fail, nodes, time and nodes per second for each position and
+ * depth, and in total ; the exit status is 1 if a count is wrong.
+ * Usage : PerftSuite [--max-depth=N] [--threads=N] [--hash=MB] [--divide] [--json=file] [--csv=file] [suite.epd]
+ * Without a file, the perftsuite.epd resource from the class path is used.
+ * With --hash, subtree counts are kept in a transposition table of this size,
+ * cleared before each position and depth.
+ * With --divide, the count of each root move is printed after each run, to
+ * find the move of a wrong count ; on one thread, this counts the run again.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class PerftSuite {
+
+	/**
+	 * Result of one position at one depth
+	 */
+	private static final class Result {
+		String fen;
+		int depth;
+		long expected, nodes, millis;
+
+		boolean passed() {
+			return nodes == expected;
+		}
+
+		long nodesPerSecond() {
+			return nodes * 1000 / Math.max(1, millis);
+		}
+	}
+
+	private PerftSuite() {
+	}
+
+	public static void main(String args[]) throws IOException, InterruptedException {
+		int maxDepth = Integer.MAX_VALUE, threads = 1, hash = 0;
+		boolean divide = false;
+		String json = null, csv = null, suite = null;
+		for (final String arg : args) {
+			if (arg.startsWith("--max-depth="))
+				maxDepth = Integer.parseInt(arg.substring(12));
+			else if (arg.startsWith("--threads="))
+				threads = Integer.parseInt(arg.substring(10));
+			else if (arg.startsWith("--hash="))
+				hash = Integer.parseInt(arg.substring(7));
+			else if (arg.equals("--divide"))
+				divide = true;
+			else if (arg.startsWith("--json="))
+				json = arg.substring(7);
+			else if (arg.startsWith("--csv="))
+				csv = arg.substring(6);
+			else
+				suite = arg;
+		}
+
+		final InputStream in = (suite != null) ? new FileInputStream(suite)
+				: PerftSuite.class.getResourceAsStream("/perftsuite.epd");
+		if (in == null)
+			throw new IOException("perftsuite.epd not found in the class path");
+		final Vector<Result> results = run(in, maxDepth, threads,
+				(hash > 0) ? new PerftTable(hash) : null, divide);
+
+		long nodes = 0, millis = 0;
+		int failures = 0;
+		for (final Result r : results) {
+			nodes += r.nodes;
+			millis += r.millis;
+			if (!r.passed())
+				failures++;
+		}
+		System.out.println("Total: " + results.size() + " runs, " + failures + " failed, "
+				+ nodes + " nodes, " + millis + " ms, " + nodes * 1000 / Math.max(1, millis)
+				+ " nps");
+
+		if (json != null)
+			writeJSON(results, json);
+		if (csv != null)
+			writeCSV(results, csv);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static Vector<Result> run(InputStream in, int maxDepth, int threads,
+			PerftTable table, boolean divide) throws IOException, InterruptedException {
+		final Vector<Result> results = new Vector<Result>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		final Perft perft = new Perft(threads, table);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				final String fields[] = line.split(";");
+				final String fen = fields[0].trim();
+				final Position position = new Position();
+				if (!position.setFEN(fen))
+					throw new IOException("Invalid FEN in the suite: " + fen);
+
+				for (int i = 1; i < fields.length; i++) {
+					final String field = fields[i].trim();
+					final int space = field.indexOf(' ');
+					if (!field.startsWith("D") || space < 0)
+						throw new IOException("Invalid depth field \"" + field + "\": " + line);
+					final Result r = new Result();
+					r.fen = fen;
+					r.depth = Integer.parseInt(field.substring(1, space));
+					r.expected = Long.parseLong(field.substring(space + 1).trim());
+					if (r.depth > maxDepth)
+						continue;
+
+					if (table != null)
+						table.clear(); // each run starts without the counts of the previous ones
+					if (threads > 1) {
+						r.nodes = perft.run(position, r.depth, true);
+						r.millis = perft.getElapsedMillis();
+					} else {
+						final long start = System.currentTimeMillis();
+						r.nodes = position.perft(r.depth, table);
+						r.millis = System.currentTimeMillis() - start;
+					}
+					results.add(r);
+					System.out.println((r.passed() ? "PASS " : "FAIL ") + fen + " depth "
+							+ r.depth + ": " + r.nodes + " nodes (expected " + r.expected
+							+ "), " + r.millis + " ms, " + r.nodesPerSecond() + " nps");
+					if (divide)
+						System.out.print((threads > 1) ? perft.divide() : position.divide(r.depth));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	private static void writeJSON(Vector<Result> results, String file) throws IOException {
+		final Writer out = new FileWriter(file);
+		try {
+			out.write("{\"timestamp\":" + System.currentTimeMillis() + ",\"results\":[\n");
+			for (int i = 0; i < results.size(); i++) {
+				final Result r = results.get(i);
+				out.write("{\"fen\":\"" + r.fen + "\",\"depth\":" + r.depth + ",\"expected\":"
+						+ r.expected + ",\"nodes\":" + r.nodes + ",\"passed\":" + r.passed()
+						+ ",\"millis\":" + r.millis + ",\"nps\":" + r.nodesPerSecond() + "}"
+						+ ((i < results.size() - 1) ? ",\n" : "\n"));
+			}
+			out.write("]}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeCSV(Vector<Result> results, String file) throws IOException {
+		final Writer out = new FileWriter(file);
+		try {
+			out.write("fen,depth,expected,nodes,passed,millis,nps\n");
+			for (final Result r : results)
+				out.write("\"" + r.fen + "\"," + r.depth + "," + r.expected + "," + r.nodes + ","
+						+ r.passed() + "," + r.millis + "," + r.nodesPerSecond() + "\n");
+		} finally {
+			out.close();
+		}
+	}
+}
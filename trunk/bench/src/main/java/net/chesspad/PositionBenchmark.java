@@ -0,0 +1,112 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.chesspad;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hot paths of Position : move generation, make/unmake, attack tests,
+ * copies and FEN conversion
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+
+	@Param({ "opening", "middlegame", "endgame" })
+	public String phase;
+
+	private String fen;
+	private Position position;
+	private final MoveList moves = new MoveList();
+	private final MoveList list = new MoveList();
+
+	@Setup
+	public void setup() {
+		fen = BenchmarkPositions.fen(phase);
+		position = new Position(fen);
+		position.generateLegalMoves(moves);
+	}
+
+	@Benchmark
+	public Object getLegalMoves() {
+		return position.getLegalMoves();
+	}
+
+	@Benchmark
+	public int generateLegalMoves() {
+		position.generateLegalMoves(list);
+		return list.size();
+	}
+
+	/**
+	 * Makes and unmakes every legal move of the position
+	 */
+	@Benchmark
+	public long makeUnmakeMove() {
+		long keys = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			position.makeMove(moves.get(i));
+			keys ^= position.getHashKey();
+			position.unmakeMove(moves.get(i));
+		}
+		return keys;
+	}
+
+	/**
+	 * Tests every square against the pieces of the side not to play
+	 */
+	@Benchmark
+	public void isAttacked(Blackhole blackhole) {
+		final int color = position.sideToPlay() ? Position.BLACK : Position.WHITE;
+		for (int square = 0; square < 64; square++)
+			blackhole.consume(position.isAttacked(square, color));
+	}
+
+	@Benchmark
+	public Object cloneBenchmark() {
+		return position.clone();
+	}
+
+	@Benchmark
+	public boolean setFEN() {
+		return position.setFEN(fen);
+	}
+
+	@Benchmark
+	public String getFEN() {
+		return position.getFEN();
+	}
+}
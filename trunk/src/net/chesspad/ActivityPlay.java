@@ -225,6 +225,9 @@ public class ActivityPlay extends Activity {
 						}
 						else lineString=(String)msg.obj;
 						break;
+					case UCIEngine.ANALYSIS_MESSAGE:
+						storeAnalysis((UCIEngine.SearchInfo)msg.obj);
+						break;
 					case UCIEngine.MOVENUMBER_MESSAGE:
 						moveNumberString=(String)msg.obj;
 						break;
@@ -335,6 +338,9 @@ public class ActivityPlay extends Activity {
 					}
 					else lineString=(String)msg.obj;
 					break;
+				case UCIEngine.ANALYSIS_MESSAGE:
+					storeAnalysis((UCIEngine.SearchInfo)msg.obj);
+					break;
 				case UCIEngine.MOVENUMBER_MESSAGE:
 					moveNumberString=(String)msg.obj;
 					break;
@@ -384,6 +390,15 @@ public class ActivityPlay extends Activity {
 	}
 	
 	
+	/**
+	 * Keeps the engine output with the current position of the game, for
+	 * all the move orders reaching it ; the output of a previous position
+	 * is dropped
+	 */
+	private void storeAnalysis(UCIEngine.SearchInfo info) {
+		game.updateAnalysis(info.key, info.depth, info.score, info.bestLine);
+	}
+
 	private static String millisToHMS(long duration) {
 		long s=duration/1000;
 		if(s>=3600) return String.format("%d:%02d:%02d", s/3600, (s%3600)/60, (s%60));
@@ -0,0 +1,81 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Comment and engine output of a position. A Game keeps one Analysis per
+ * position, shared by all the move orders reaching it.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class Analysis implements java.io.Serializable {
+
+	private static final long serialVersionUID = 6410375513994602751L;
+
+	private String comment;
+	private int depth = -1; // -1 : not analysed by an engine
+	private int score; // centipawns, for the side to play
+	private String bestLine; // UCI moves
+
+	public String getComment() {
+		return comment;
+	}
+
+	void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	/**
+	 * @return the depth of the engine search, or -1 if the position was not analysed
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the engine score in centipawns, for the side to play
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * @return the best line found by the engine, as UCI moves
+	 */
+	public String getBestLine() {
+		return bestLine;
+	}
+
+	/**
+	 * Keeps the engine output if it comes from a search at least as deep as
+	 * the stored one
+	 * @return true if it was kept
+	 */
+	boolean update(int depth, int score, String bestLine) {
+		if (depth < this.depth)
+			return false;
+		this.depth = depth;
+		this.score = score;
+		this.bestLine = bestLine;
+		return true;
+	}
+
+	boolean isEmpty() {
+		return depth < 0 && (comment == null || comment.length() == 0);
+	}
+}
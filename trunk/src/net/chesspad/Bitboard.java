@@ -0,0 +1,210 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Precomputed attack tables and helpers for 64-bit bitboards.
+ * Bit n of a bitboard is the square n of Position (A8=0 ... H1=63).
+ * Sliding attacks use fancy magic bitboards.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class Bitboard {
+
+	static final long FILE_A = 0x0101010101010101L;
+	static final long RANK_8 = 0xFFL;
+	static final long RANK_7 = RANK_8 << 8;
+	static final long RANK_2 = RANK_8 << 48;
+	static final long RANK_1 = RANK_8 << 56;
+	static final long LIGHT_SQUARES = 0xAA55AA55AA55AA55L; // a8, h1...
+
+	static final long KNIGHT_ATTACKS[] = new long[64];
+	static final long KING_ATTACKS[] = new long[64];
+	// PAWN_ATTACKS[color][sq] : squares attacked by a pawn of this color on sq
+	static final long PAWN_ATTACKS[][] = new long[2][64];
+
+	// BETWEEN[a][b] : squares strictly between two aligned squares
+	static final long BETWEEN[][] = new long[64][64];
+	// LINE[a][b] : the whole line through two aligned squares
+	static final long LINE[][] = new long[64][64];
+
+	private static final long ROOK_MAGICS[] = {
+			0x1080004008801020L, 0x0840092002C03000L, 0x1900200010400900L, 0x0880100008000480L,
+			0x4200100420080200L, 0x8100020100080400L, 0x0200040110886200L, 0x0200008040220411L,
+			0x0404800084400220L, 0x0000401000402000L, 0x0086001081220440L, 0x0408800800100280L,
+			0x000A001201040820L, 0x8848800200840080L, 0x4001000100040200L, 0x0442000102105084L,
+			0x9080010020804100L, 0x0040404000201009L, 0x0000808010002009L, 0x2200090021D00100L,
+			0x0008008008040080L, 0x0004004002010040L, 0x0011040008015042L, 0x00000A0001768104L,
+			0x0000800080204009L, 0x2010004140002001L, 0x9800200280100080L, 0x1000100080080080L,
+			0x0442000A00049020L, 0x2100040080020080L, 0x0800120400900148L, 0x0010040A00128541L,
+			0x2800804000800030L, 0x1010002000400041L, 0x4000200011004100L, 0x0610008410800800L,
+			0x0400802402800800L, 0xC100020080800400L, 0x0002000802000401L, 0x0182085882000401L,
+			0x0220204000808000L, 0x2860100040024022L, 0x0001002004110040L, 0x99101042000A0020L,
+			0x0004080004008080L, 0x0010040002008080L, 0x2012004881020004L, 0x8300842444820011L,
+			0x0088403882010200L, 0x0820400080210100L, 0x0110910040A00300L, 0x0801100280080480L,
+			0x0242009008200600L, 0x1002000489500200L, 0x0040800200010080L, 0x0091800041000080L,
+			0x0000209300488001L, 0x04C1002414824001L, 0x020020000B001041L, 0x7000100004200901L,
+			0x8002002004100802L, 0x30010002084C0007L, 0x0888221800813004L, 0x4000002840840112L };
+
+	private static final long BISHOP_MAGICS[] = {
+			0xA010041108003100L, 0x006082020A002900L, 0x6810010619200000L, 0x08281A0520000408L,
+			0x0001104001000400L, 0x0018901008048400L, 0x00040A0210245280L, 0x000200210808A402L,
+			0x9140048410821200L, 0x0800091010820041L, 0x20504804832202C0L, 0x0100091401081000L,
+			0x8021011140000012L, 0x0810020804450400L, 0x208B0542109008A2L, 0x0080084A08040204L,
+			0x0040E2A80811244CL, 0x2505022008008108L, 0x0430220100420040L, 0x010A040420220040L,
+			0x1105000290400000L, 0x0093001200822120L, 0x4000A62048043004L, 0x280120048A015004L,
+			0x006090002A020814L, 0x44042000240800D0L, 0x01102800040A4400L, 0x1004080080220040L,
+			0x0001001011004024L, 0x0010044000805040L, 0x0914041200820100L, 0x0004821012821480L,
+			0x0024040500C05021L, 0x0088611002080200L, 0x0116080A00040020L, 0x4000020080080080L,
+			0x2450450140840040L, 0x0000880201484100L, 0x0222020404020092L, 0x8081110600002E00L,
+			0x2842101105000801L, 0x1100809008001025L, 0x00020202221C0400L, 0x0422014022009020L,
+			0x0210046102100C00L, 0xC004008082029102L, 0x00AA461801101200L, 0x0404080080201108L,
+			0x020542108C205002L, 0x0410544804100100L, 0x0040910841100000L, 0x0400200042021100L,
+			0x00004204850400C0L, 0x0200100410A42102L, 0x1040020801210102L, 0x0805040410420000L,
+			0x2884804130100200L, 0x800C262201242000L, 0x1058000194108800L, 0x0014221054420204L,
+			0x0104000012A02200L, 0x0200881003300100L, 0x0140400202840100L, 0x0402020801010201L };
+
+	private static final int ROOK_DIRECTIONS[][] = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+	private static final int BISHOP_DIRECTIONS[][] = { { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+
+	private static final long ROOK_MASKS[] = new long[64];
+	private static final long BISHOP_MASKS[] = new long[64];
+	private static final int ROOK_SHIFTS[] = new int[64];
+	private static final int BISHOP_SHIFTS[] = new int[64];
+	private static final long ROOK_TABLE[][] = new long[64][];
+	private static final long BISHOP_TABLE[][] = new long[64][];
+
+	static {
+		final int knightSteps[][] = { { -2, -1 }, { -2, 1 }, { -1, -2 }, { -1, 2 },
+				{ 1, -2 }, { 1, 2 }, { 2, -1 }, { 2, 1 } };
+		final int kingSteps[][] = { { -1, -1 }, { -1, 0 }, { -1, 1 }, { 0, -1 },
+				{ 0, 1 }, { 1, -1 }, { 1, 0 }, { 1, 1 } };
+
+		for (int sq = 0; sq < 64; sq++) {
+			KNIGHT_ATTACKS[sq] = steps(sq, knightSteps);
+			KING_ATTACKS[sq] = steps(sq, kingSteps);
+			// white pawns move towards row 0, black pawns towards row 7
+			PAWN_ATTACKS[Position.WHITE][sq] = steps(sq, new int[][] { { -1, -1 }, { -1, 1 } });
+			PAWN_ATTACKS[Position.BLACK][sq] = steps(sq, new int[][] { { 1, -1 }, { 1, 1 } });
+
+			ROOK_MASKS[sq] = relevantOccupancy(sq, ROOK_DIRECTIONS);
+			BISHOP_MASKS[sq] = relevantOccupancy(sq, BISHOP_DIRECTIONS);
+			ROOK_SHIFTS[sq] = 64 - Long.bitCount(ROOK_MASKS[sq]);
+			BISHOP_SHIFTS[sq] = 64 - Long.bitCount(BISHOP_MASKS[sq]);
+			ROOK_TABLE[sq] = fillTable(sq, ROOK_MASKS[sq], ROOK_MAGICS[sq], ROOK_SHIFTS[sq], ROOK_DIRECTIONS);
+			BISHOP_TABLE[sq] = fillTable(sq, BISHOP_MASKS[sq], BISHOP_MAGICS[sq], BISHOP_SHIFTS[sq], BISHOP_DIRECTIONS);
+		}
+
+		for (int a = 0; a < 64; a++)
+			for (int b = 0; b < 64; b++) {
+				if ((rookAttacks(a, 0) & bit(b)) != 0) {
+					BETWEEN[a][b] = rookAttacks(a, bit(b)) & rookAttacks(b, bit(a));
+					LINE[a][b] = (rookAttacks(a, 0) & rookAttacks(b, 0)) | bit(a) | bit(b);
+				}
+				if ((bishopAttacks(a, 0) & bit(b)) != 0) {
+					BETWEEN[a][b] = bishopAttacks(a, bit(b)) & bishopAttacks(b, bit(a));
+					LINE[a][b] = (bishopAttacks(a, 0) & bishopAttacks(b, 0)) | bit(a) | bit(b);
+				}
+			}
+	}
+
+	private Bitboard() {
+	}
+
+	static long bit(int square) {
+		return 1L << square;
+	}
+
+	/**
+	 * @return the lowest square set in this bitboard (64 if empty)
+	 */
+	static int first(long bb) {
+		return Long.numberOfTrailingZeros(bb);
+	}
+
+	static long rookAttacks(int square, long occupied) {
+		return ROOK_TABLE[square][(int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+	}
+
+	static long bishopAttacks(int square, long occupied) {
+		return BISHOP_TABLE[square][(int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+	}
+
+	static long queenAttacks(int square, long occupied) {
+		return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+	}
+
+	private static long steps(int square, int steps[][]) {
+		long bb = 0;
+		for (final int step[] : steps) {
+			final int row = square / 8 + step[0];
+			final int file = square % 8 + step[1];
+			if (row >= 0 && row < 8 && file >= 0 && file < 8)
+				bb |= bit(row * 8 + file);
+		}
+		return bb;
+	}
+
+	/**
+	 * Slow ray scan, only used to fill the magic tables.
+	 */
+	private static long slidingAttacks(int square, long occupied, int directions[][]) {
+		long bb = 0;
+		for (final int direction[] : directions) {
+			int row = square / 8 + direction[0];
+			int file = square % 8 + direction[1];
+			while (row >= 0 && row < 8 && file >= 0 && file < 8) {
+				bb |= bit(row * 8 + file);
+				if ((occupied & bit(row * 8 + file)) != 0)
+					break;
+				row += direction[0];
+				file += direction[1];
+			}
+		}
+		return bb;
+	}
+
+	/**
+	 * @return the squares whose occupancy changes the slider attacks (board edges excluded)
+	 */
+	private static long relevantOccupancy(int square, int directions[][]) {
+		long bb = 0;
+		for (final int direction[] : directions) {
+			int row = square / 8 + direction[0];
+			int file = square % 8 + direction[1];
+			while (row + direction[0] >= 0 && row + direction[0] < 8
+					&& file + direction[1] >= 0 && file + direction[1] < 8) {
+				bb |= bit(row * 8 + file);
+				row += direction[0];
+				file += direction[1];
+			}
+		}
+		return bb;
+	}
+
+	private static long[] fillTable(int square, long mask, long magic, int shift, int directions[][]) {
+		final long table[] = new long[1 << (64 - shift)];
+		// enumerate all subsets of the mask (Carry-Rippler)
+		long subset = 0;
+		do {
+			table[(int) ((subset * magic) >>> shift)] = slidingAttacks(square, subset, directions);
+			subset = (subset - mask) & mask;
+		} while (subset != 0);
+		return table;
+	}
+}
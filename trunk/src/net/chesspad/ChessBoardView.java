@@ -80,9 +80,9 @@ public class ChessBoardView extends View implements Observer {
 	 */
 	public void animateMove(Move m, Position finalPosition) {
 		animation = true;
-		animationPiece = m.movingPiece;
-		animationFrom = m.from;
-		animationTo = m.to;
+		animationPiece = m.getMovingPiece();
+		animationFrom = m.getFrom();
+		animationTo = m.getTo();
 		animationStartTime = System.currentTimeMillis();
 		animationStopTime = animationStartTime + 200;
 		animationFinalPosition = (Position) finalPosition.clone();
@@ -375,7 +375,7 @@ public class ChessBoardView extends View implements Observer {
 				    	
 				    	final Move move = new Move(moveString+itemsStr[item], position);
 				    	
-				    	if (position.getLegalMoves().contains(move)) {
+				    	if (position.isLegal(move.getPacked())) {
 							selectedSquare = -1;
 							Log.d("chessbourad", move.toString());
 							if(moveListener!=null)
@@ -393,7 +393,7 @@ public class ChessBoardView extends View implements Observer {
 			
 			final Move move = new Move(moveString, position);
 
-			if (position.getLegalMoves().contains(move)) {
+			if (position.isLegal(move.getPacked())) {
 				selectedSquare = -1;
 				Log.d("chessbourad", move.toString());
 				if(moveListener!=null)
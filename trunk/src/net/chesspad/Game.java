@@ -18,8 +18,14 @@
 
 package net.chesspad;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Observable;
-import java.util.Vector;
 
 /**
  * Class holding all information about a game ; it sends events to observers when it changes
@@ -27,10 +33,49 @@ import java.util.Vector;
  */
 public class Game extends Observable implements java.io.Serializable {
 
-	private static final long serialVersionUID = 312170620991527099L;
+	private static final long serialVersionUID = -6128440392147207953L;
 	private Position startPosition; //Game start position
-	private final Vector<Move> moves; //All the moves of this game
-	private int backMoves=0;
+	private final GameTree tree; //All the moves of this game, with the variations
+	private int cursor=GameTree.ROOT; //node of the current position
+	private int ply=0; //number of moves from the start position to the cursor
+	// comments and engine output by position hash key : the nodes of a
+	// position reached by transposition share them
+	private final HashMap<Long, Analysis> analysis=new HashMap<Long, Analysis>();
+
+	// nodes of the current line : from the root to the cursor, then the moves
+	// after the cursor, where back and forward go ; line[i] is the node
+	// reached after i moves
+	private transient int line[];
+	private transient int lineLength;
+	// algebraic notation of the moves of the line, computed when asked
+	private transient String lineNotation[];
+	private transient List<Move> lineView;
+
+	// state published after every change, for the readers on other threads
+	private transient volatile GameSnapshot snapshot;
+	private transient Position startSnapshot; // copy shared by the snapshots
+	private transient int lineSnapshot[]; // moves of the line, shared by the snapshots
+
+	/**
+	 * Default number of plies between two stored positions
+	 */
+	static final int DEFAULT_CHECKPOINT_INTERVAL = 8;
+
+	// position at the current ply, kept up to date move by move ; it also
+	// holds the history needed to detect repetitions
+	private transient Position position;
+	// binary encoded positions (Position.MAX_BINARY_SIZE bytes each) at
+	// plies 0, checkpointInterval, 2*checkpointInterval...
+	private transient ByteBuffer checkpoints;
+	private transient int checkpointCount;
+	private int checkpointInterval=DEFAULT_CHECKPOINT_INTERVAL;
+
+	private static final String START_FEN="rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	// UCI position command up to the current ply, updated move by move
+	private transient StringBuilder uciCommand;
+	private transient int uciPrefixLength; // length of "position ... moves"
+	private transient String uciPrefix; // "position ... moves", shared by the snapshots
 
 	/**
 	 * 
@@ -40,14 +85,103 @@ public class Game extends Observable implements java.io.Serializable {
 		return startPosition;
 	}
 
-	public Vector<Move> getMoves() {
-		return moves;
+	/**
+	 * The moves of the current line : from the start position to the current
+	 * one, then the moves forward() goes through. This read-only view follows
+	 * the changes of the game ; its Move objects are created when asked, with
+	 * their algebraic notation.
+	 */
+	public List<Move> getMoves() {
+		if(lineView==null)
+			lineView=new AbstractList<Move>() {
+				@Override
+				public Move get(int index) {
+					if(index<0 || index>=size())
+						throw new IndexOutOfBoundsException("move "+index+" of "+lineLength);
+					final Move m=new Move(tree.move(line[index+1]));
+					m.algebraicNotation=notation(index);
+					return m;
+				}
+
+				@Override
+				public int size() {
+					line();
+					return lineLength;
+				}
+			};
+		return lineView;
+	}
+
+	/**
+	 * Algebraic notation of a move of the current line, computed once from
+	 * the closest checkpoint
+	 */
+	private String notation(int index) {
+		if(lineNotation==null || lineNotation.length<line.length)
+		{
+			final String larger[]=new String[line.length];
+			if(lineNotation!=null)
+				System.arraycopy(lineNotation, 0, larger, 0, lineNotation.length);
+			lineNotation=larger;
+		}
+		if(lineNotation[index]==null)
+			lineNotation[index]=new Move(tree.move(line[index+1])).toAlgebraicNotation(getPosition(index));
+		return lineNotation[index];
+	}
+
+	/**
+	 * @return the moves that can be played from the current position : the
+	 * main continuation first, then the sidelines
+	 */
+	public List<Move> getVariations() {
+		final Position p=cursorPosition();
+		final List<Move> variations=new ArrayList<Move>();
+		for(int n=tree.firstChild(cursor);n!=GameTree.NONE;n=tree.nextSibling(n))
+		{
+			final Move m=new Move(tree.move(n));
+			m.toAlgebraicNotation(p);
+			variations.add(m);
+		}
+		return variations;
 	}
 
 	public Game() {
 		super();
 		startPosition = new Position();
-		moves = new Vector<Move>();
+		tree = new GameTree(startPosition.getHashKey());
+		publish();
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws java.io.IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		publish();
+	}
+
+	/**
+	 * The state of the game after its last change, which can be read from
+	 * any thread without locking
+	 */
+	public GameSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Makes a new snapshot of the game : the previous ones are never changed,
+	 * a new copy of the moves is only made when the line changes
+	 */
+	private void publish() {
+		line();
+		if(startSnapshot==null)
+			startSnapshot=(Position) startPosition.clone();
+		if(lineSnapshot==null || lineSnapshot.length!=lineLength)
+		{
+			lineSnapshot=new int[lineLength];
+			for(int i=0;i<lineLength;i++)
+				lineSnapshot[i]=tree.move(line[i+1]);
+		}
+		snapshot=new GameSnapshot(startSnapshot, lineSnapshot, ply, cursorPosition(),
+				uciPrefix());
 	}
 
 	/**
@@ -55,63 +189,329 @@ public class Game extends Observable implements java.io.Serializable {
 	 * @return the position after the last move.
 	 */
 	public Position getCurrentPosition() {
-		final Position currentPosition = (Position) startPosition.clone();
-		
-		for(int i=0;i<moves.size()-backMoves;i++)
-			currentPosition.makeMove(moves.get(i));
-		
-		/*
-		for (final Move m : moves)
-			currentPosition.makeMove(m);*/
-		return currentPosition;
+		return (Position) cursorPosition().clone();
+	}
+
+	/**
+	 * @return the number of moves played to reach the current position
+	 */
+	public int getCurrentPly() {
+		return ply;
+	}
+
+	/**
+	 * Position after this number of moves, rebuilt from the closest stored
+	 * position : at most checkpointInterval-1 moves are replayed. Unlike
+	 * getCurrentPosition(), the result knows no previous move.
+	 * @param ply number of moves along the current line
+	 */
+	public Position getPosition(int ply) {
+		line();
+		if(ply<0 || ply>lineLength)
+			throw new IndexOutOfBoundsException("ply "+ply+" of "+lineLength);
+		cursorPosition();
+		final int checkpoint=Math.min(ply/checkpointInterval, checkpointCount-1);
+		final ByteBuffer buffer=checkpoints.duplicate();
+		buffer.position(checkpoint*Position.MAX_BINARY_SIZE);
+		final Position p=new Position(buffer);
+		for(int i=checkpoint*checkpointInterval;i<ply;i++)
+		{
+			p.makeMove(tree.move(line[i+1]));
+			storeCheckpoint(i+1, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Sets the memory used by getPosition(ply) : one position of at most
+	 * Position.MAX_BINARY_SIZE bytes is stored every interval plies
+	 */
+	public void setCheckpointInterval(int interval) {
+		checkpointInterval=Math.max(1, interval);
+		position=null; //rebuilt with the new checkpoints
+	}
+
+	/**
+	 * The position at the current ply, built by replaying the moves only
+	 * after a new start position or deserialization
+	 */
+	private Position cursorPosition() {
+		if(position==null)
+		{
+			checkpoints=null;
+			checkpointCount=0;
+			position=(Position) startPosition.clone();
+			storeCheckpoint(0, position);
+			line();
+			for(int i=0;i<ply;i++)
+			{
+				position.makeMove(tree.move(line[i+1]));
+				storeCheckpoint(i+1, position);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * The current line : back and forward stay on it, playing at its end
+	 * extends it. When the cursor leaves it or the tree changes, it is rebuilt
+	 * with the main continuation after the cursor.
+	 */
+	private int[] line() {
+		if(line==null)
+		{
+			lineLength=ply;
+			for(int n=tree.firstChild(cursor);n!=GameTree.NONE;n=tree.firstChild(n))
+				lineLength++;
+			line=new int[lineLength+16];
+			for(int i=ply, n=cursor;i>=0;i--, n=tree.parent(n))
+				line[i]=n;
+			for(int i=ply;i<lineLength;i++)
+				line[i+1]=tree.firstChild(line[i]);
+		}
+		return line;
+	}
+
+	/**
+	 * Forgets the current line after the cursor, and the checkpoints on it
+	 */
+	private void lineChanged() {
+		line=null;
+		lineNotation=null;
+		lineSnapshot=null;
+		checkpointCount=Math.min(checkpointCount, ply/checkpointInterval+1);
+	}
+
+	/**
+	 * Stores the position reached at this ply if it is the next checkpoint
+	 */
+	private void storeCheckpoint(int ply, Position p) {
+		if(ply%checkpointInterval!=0 || ply/checkpointInterval!=checkpointCount)
+			return;
+		if(checkpoints==null || checkpoints.capacity()<(checkpointCount+1)*Position.MAX_BINARY_SIZE)
+		{
+			final ByteBuffer larger=ByteBuffer.allocate(Position.MAX_BINARY_SIZE*Math.max(16, checkpointCount*2));
+			if(checkpoints!=null)
+				larger.put(checkpoints.array(), 0, checkpointCount*Position.MAX_BINARY_SIZE);
+			checkpoints=larger;
+		}
+		checkpoints.position(checkpointCount*Position.MAX_BINARY_SIZE);
+		p.write(checkpoints);
+		checkpointCount++;
 	}
 	
+	/**
+	 * @return how the game ends in the current position, or NONE if it goes on
+	 */
+	public Position.Termination getTermination() {
+		return cursorPosition().getTermination(); //does not change the position
+	}
+
+	public boolean isOver() {
+		return getTermination() != Position.Termination.NONE;
+	}
+
 	public void back()
 	{
-		backMoves++;
-		if(backMoves>moves.size()) backMoves=moves.size();
+		if(cursor!=GameTree.ROOT)
+			stepBack();
+		publish();
 		this.setChanged();
 		this.notifyObservers();
 	}
 	
+	private void stepBack()
+	{
+		line(); //keeps the moves after the cursor for forward()
+		cursorPosition().unmakeMove(tree.move(cursor));
+		final StringBuilder s=uciCommand();
+		s.setLength(Math.max(uciPrefixLength, s.lastIndexOf(" ")));
+		cursor=tree.parent(cursor);
+		ply--;
+	}
+
 	public void forward()
 	{
-		backMoves--;
-		if(backMoves<0) backMoves=0;
+		line();
+		if(ply<lineLength)
+		{
+			final int next=line[ply+1];
+			cursorPosition().makeMove(tree.move(next));
+			uciCommand().append(' ').append(Move.toString(tree.move(next)));
+			cursor=next;
+			ply++;
+		}
+		publish();
 		this.setChanged();
 		this.notifyObservers();
 	}
 
 	public boolean isInPlayingMode()
 	{
-		return(backMoves==0);
+		return(tree.firstChild(cursor)==GameTree.NONE);
 	}
 	
 	/**
-	 * Play this move, and notify all observers
+	 * Play this move, and notify all observers. If the current position is
+	 * not the last one, the following moves are kept : the move goes on
+	 * along an existing variation, or starts a new sideline.
 	 * @param m move to play
 	 */
 	public void playMove(Move m) {
-		m.toAlgebraicNotation(getCurrentPosition());
-		
-		while(backMoves!=0)
+		final Position p=cursorPosition();
+		line();
+		p.makeMove(m);
+		final int child=tree.addChild(cursor, m.getPacked(), p.getHashKey());
+		if(ply==lineLength)
 		{
-			moves.remove(moves.size()-1);
-			backMoves--;
+			if(lineLength+1==line.length)
+			{
+				final int larger[]=new int[line.length*2];
+				System.arraycopy(line, 0, larger, 0, line.length);
+				line=larger;
+			}
+			line[++lineLength]=child;
 		}
-			
-		moves.add(m);
+		else if(child!=line[ply+1])
+			lineChanged();
+
+		uciCommand().append(' ').append(m);
+		cursor=child;
+		ply++;
+		storeCheckpoint(ply, p);
+		publish();
 		this.setChanged();
 		this.notifyObservers(m);
 	}
 
+	/**
+	 * Moves the variation of the current position one place up among the
+	 * alternatives to its last move ; the first one is the main line
+	 */
+	public void promoteVariation() {
+		if(tree.promote(cursor))
+		{
+			this.setChanged();
+			this.notifyObservers();
+		}
+	}
+
+	/**
+	 * Moves the variation of the current position one place down among the
+	 * alternatives to its last move
+	 */
+	public void demoteVariation() {
+		if(tree.demote(cursor))
+		{
+			this.setChanged();
+			this.notifyObservers();
+		}
+	}
+
+	/**
+	 * Deletes the last move and all the moves after it, and goes back one move
+	 */
+	public void deleteVariation() {
+		if(cursor==GameTree.ROOT)
+			return;
+		final int deleted=cursor;
+		stepBack();
+		tree.delete(deleted);
+		lineChanged();
+		if(!analysis.isEmpty())
+		{
+			// forget the positions no longer reached by any move order
+			final HashSet<Long> keys=new HashSet<Long>();
+			tree.addKeys(keys);
+			for(Iterator<Long> i=analysis.keySet().iterator();i.hasNext();)
+				if(!keys.contains(i.next()))
+					i.remove();
+		}
+		publish();
+		this.setChanged();
+		this.notifyObservers();
+	}
+
+	/**
+	 * @return the comment and engine output of the current position, or null
+	 * if there are none ; they are shared by all the move orders reaching it
+	 */
+	public Analysis getAnalysis() {
+		return analysis.get(tree.key(cursor));
+	}
+
+	/**
+	 * @return the analysis of the position after this number of moves along
+	 * the current line, or null
+	 */
+	public Analysis getAnalysis(int ply) {
+		line();
+		if(ply<0 || ply>lineLength)
+			throw new IndexOutOfBoundsException("ply "+ply+" of "+lineLength);
+		return analysis.get(tree.key(line[ply]));
+	}
+
+	/**
+	 * Comments the current position, and notifies all observers
+	 * @param comment the comment, or null to remove it
+	 */
+	public void setComment(String comment) {
+		analysisToUpdate().setComment(comment);
+		removeIfEmpty();
+		this.setChanged();
+		this.notifyObservers();
+	}
+
+	/**
+	 * Stores the engine output for the current position, unless a deeper
+	 * search of it is known ; observers are not notified
+	 * @param key hash key of the searched position : the output of a search
+	 * of another position is dropped
+	 * @param score centipawns, for the side to play
+	 * @param bestLine UCI moves
+	 * @return false if the output was dropped
+	 */
+	public boolean updateAnalysis(long key, int depth, int score, String bestLine) {
+		if(key!=tree.key(cursor))
+			return false;
+		return analysisToUpdate().update(depth, score, bestLine);
+	}
+
+	private Analysis analysisToUpdate() {
+		final Long key=tree.key(cursor);
+		Analysis a=analysis.get(key);
+		if(a==null)
+		{
+			a=new Analysis();
+			analysis.put(key, a);
+		}
+		return a;
+	}
+
+	private void removeIfEmpty() {
+		final Analysis a=getAnalysis();
+		if(a!=null && a.isEmpty())
+			analysis.remove(tree.key(cursor));
+	}
+
 	/**
 	 * Change the starting position. This also clears the moves and notifies all the observers.
 	 * @param startPosition
 	 */
 	public void setStartPosition(Position startPosition) {
 		this.startPosition = startPosition;
-		moves.clear();
+		tree.clear(startPosition.getHashKey());
+		analysis.clear();
+		cursor=GameTree.ROOT;
+		ply=0;
+		line=null;
+		lineNotation=null;
+		lineSnapshot=null;
+		position=null;
+		startSnapshot=null;
+		uciCommand=null;
+		uciPrefix=null;
+		publish();
 		this.setChanged();
 		this.notifyObservers();
 	}
@@ -122,17 +522,36 @@ public class Game extends Observable implements java.io.Serializable {
 	 */
 	public String toString()
 	{
-		String s="position fen "+startPosition.getFEN()+" moves";
-		//TODO renvoyer startposition au lieu de la fen si startposition normale (voir uci protocol)
-		/*
-		for(Move m: moves)
+		return uciCommand().toString();
+	}
+
+	/**
+	 * The UCI position command up to the current ply, kept between calls :
+	 * playing or going forward appends one move, going back removes one
+	 */
+	private StringBuilder uciCommand()
+	{
+		if(uciCommand==null)
 		{
-			s+=" "+m.toString();
-		}*/
-		for(int i=0;i<moves.size()-backMoves;i++)
-			s+=" "+moves.get(i).toString();
-		
-		return s;
+			final String fen=startPosition.getFEN();
+			uciCommand=new StringBuilder(64+6*ply);
+			if(fen.equals(START_FEN))
+				uciCommand.append("position startpos moves");
+			else
+				uciCommand.append("position fen ").append(fen).append(" moves");
+			uciPrefixLength=uciCommand.length();
+			line();
+			for(int i=1;i<=ply;i++)
+				uciCommand.append(' ').append(Move.toString(tree.move(line[i])));
+		}
+		return uciCommand;
+	}
+
+	private String uciPrefix()
+	{
+		if(uciPrefix==null)
+			uciPrefix=uciCommand().substring(0, uciPrefixLength);
+		return uciPrefix;
 	}
 
 }
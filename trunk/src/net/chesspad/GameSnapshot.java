@@ -0,0 +1,114 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+import java.nio.ByteBuffer;
+
+/**
+ * State of a Game at one time, which never changes : it can be read from any
+ * thread while the game goes on. Positions are returned as copies.
+ * Going back and forward only makes a new snapshot sharing the moves of the
+ * previous one, with the current position in binary form.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+public final class GameSnapshot {
+
+	private final Position startPosition;
+	private final int moves[]; // packed moves of the current line, shared
+	private final int ply;
+	private final byte currentPosition[]; // Position.write encoding
+	private final long hashKey; // of the current position
+	private final boolean sideToPlay; // in the current position
+	private final String uciPrefix; // "position ... moves"
+	private String uciCommand; // built when asked : any thread builds the same
+
+	GameSnapshot(Position startPosition, int moves[], int ply, Position currentPosition,
+			String uciPrefix) {
+		this.startPosition = startPosition;
+		this.moves = moves;
+		this.ply = ply;
+		final ByteBuffer buffer = ByteBuffer.allocate(Position.MAX_BINARY_SIZE);
+		currentPosition.write(buffer);
+		this.currentPosition = buffer.array();
+		hashKey = currentPosition.getHashKey();
+		sideToPlay = currentPosition.sideToPlay();
+		this.uciPrefix = uciPrefix;
+	}
+
+	public Position getStartPosition() {
+		return (Position) startPosition.clone();
+	}
+
+	/**
+	 * Unlike Game.getCurrentPosition(), the result knows no previous move
+	 */
+	public Position getCurrentPosition() {
+		return new Position(ByteBuffer.wrap(currentPosition));
+	}
+
+	/**
+	 * @return the hash key of the current position
+	 */
+	public long getHashKey() {
+		return hashKey;
+	}
+
+	/**
+	 * @return the side to play in the current position, true for white
+	 */
+	public boolean sideToPlay() {
+		return sideToPlay;
+	}
+
+	/**
+	 * @return the number of moves played to reach the current position
+	 */
+	public int getCurrentPly() {
+		return ply;
+	}
+
+	/**
+	 * @return the number of moves of the current line, including the moves
+	 * after the current position
+	 */
+	public int getMoveCount() {
+		return moves.length;
+	}
+
+	public Move getMove(int index) {
+		return new Move(moves[index]);
+	}
+
+	/**
+	 * Returns the UCI position command of the current position, built from
+	 * all the moves on the first call : on the thread making the moves,
+	 * Game.toString() is cheaper
+	 */
+	public String toString() {
+		String s = uciCommand;
+		if (s == null) {
+			final StringBuilder b = new StringBuilder(uciPrefix.length() + 6 * ply);
+			b.append(uciPrefix);
+			for (int i = 0; i < ply; i++)
+				b.append(' ').append(Move.toString(moves[i]));
+			uciCommand = s = b.toString();
+		}
+		return s;
+	}
+}
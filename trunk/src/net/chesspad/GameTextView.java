@@ -18,9 +18,9 @@
 
 package net.chesspad;
 
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Vector;
 
 import android.content.Context;
 import android.util.AttributeSet;
@@ -39,14 +39,14 @@ public class GameTextView extends TextView implements Observer{
 	}
 
 	public void update(Observable observable, Object data) {
-		String s="";
+		final StringBuilder s=new StringBuilder();
 		Game game=(Game)observable;
-		Vector<Move> moves=(Vector<Move>)game.getMoves();
+		List<Move> moves=game.getMoves();
 
 		for(int i=0;i<moves.size();i++)
 		{
-			if((i%2)==0) s+=Integer.toString(i/2+1)+".";
-			s+=moves.get(i).algebraicNotation+" ";
+			if((i%2)==0) s.append(i/2+1).append('.');
+			s.append(moves.get(i).algebraicNotation).append(' ');
 		}
 		this.setText(s);
 	}
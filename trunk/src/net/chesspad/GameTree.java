@@ -0,0 +1,230 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * The moves of a game and all its variations, as a tree of nodes stored in
+ * parallel arrays : a node is an index, holding the packed move leading to it
+ * and the indices of its parent, first child and next sibling, and the hash
+ * key of its position.
+ * The first child of a node is its main continuation, the next ones are the
+ * sidelines. Node ROOT is the start position and has no move.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class GameTree implements java.io.Serializable {
+
+	private static final long serialVersionUID = -2719423416604525840L;
+
+	static final int ROOT = 0;
+	static final int NONE = -1;
+
+	private int moves[];
+	private int parent[];
+	private int firstChild[];
+	private int nextSibling[];
+	private long keys[];
+	private int capacity; // nodes in use or free
+	private int freeList = NONE; // deleted nodes, linked by nextSibling
+	private int size;
+
+	GameTree(long rootKey) {
+		clear(rootKey);
+	}
+
+	/**
+	 * Removes all the nodes but the root
+	 * @param rootKey hash key of the start position
+	 */
+	void clear(long rootKey) {
+		moves = new int[16];
+		parent = new int[16];
+		firstChild = new int[16];
+		nextSibling = new int[16];
+		keys = new long[16];
+		keys[ROOT] = rootKey;
+		capacity = 1;
+		freeList = NONE;
+		size = 1;
+		moves[ROOT] = Move.NONE;
+		parent[ROOT] = firstChild[ROOT] = nextSibling[ROOT] = NONE;
+	}
+
+	/**
+	 * @return the number of nodes, root included
+	 */
+	int size() {
+		return size;
+	}
+
+	int move(int node) {
+		return moves[node];
+	}
+
+	int parent(int node) {
+		return parent[node];
+	}
+
+	int firstChild(int node) {
+		return firstChild[node];
+	}
+
+	int nextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	/**
+	 * @return the hash key of the position of this node : nodes reached by
+	 * transposition have the same key
+	 */
+	long key(int node) {
+		return keys[node];
+	}
+
+	/**
+	 * Adds the keys of all the nodes to this set
+	 */
+	void addKeys(java.util.Set<Long> set) {
+		for (int n = 0; n < capacity; n++)
+			if (n == ROOT || parent[n] != NONE)
+				set.add(keys[n]);
+	}
+
+	/**
+	 * Returns the child of node reached by this move, adding it as the last
+	 * sideline if it does not exist yet
+	 * @param key hash key of the position after the move
+	 */
+	int addChild(int node, int move, long key) {
+		int last = NONE;
+		for (int n = firstChild[node]; n != NONE; n = nextSibling[n]) {
+			if (moves[n] == move)
+				return n;
+			last = n;
+		}
+		final int child = allocate();
+		moves[child] = move;
+		keys[child] = key;
+		parent[child] = node;
+		firstChild[child] = nextSibling[child] = NONE;
+		if (last == NONE)
+			firstChild[node] = child;
+		else
+			nextSibling[last] = child;
+		return child;
+	}
+
+	/**
+	 * Moves this node one place up among its siblings : the second child
+	 * becomes the main continuation
+	 * @return false if the node was already the first child
+	 */
+	boolean promote(int node) {
+		final int p = parent[node];
+		if (p == NONE || firstChild[p] == node)
+			return false;
+		int before = NONE, previous = firstChild[p];
+		while (nextSibling[previous] != node) {
+			before = previous;
+			previous = nextSibling[previous];
+		}
+		nextSibling[previous] = nextSibling[node];
+		nextSibling[node] = previous;
+		if (before == NONE)
+			firstChild[p] = node;
+		else
+			nextSibling[before] = node;
+		return true;
+	}
+
+	/**
+	 * Moves this node one place down among its siblings
+	 * @return false if the node was already the last child
+	 */
+	boolean demote(int node) {
+		return parent[node] != NONE && nextSibling[node] != NONE && promote(nextSibling[node]);
+	}
+
+	/**
+	 * Removes this node and all the moves after it ; their indices are
+	 * reused by the next added nodes. The root cannot be deleted.
+	 */
+	void delete(int node) {
+		final int p = parent[node];
+		if (p == NONE)
+			return;
+		if (firstChild[p] == node)
+			firstChild[p] = nextSibling[node];
+		else {
+			int previous = firstChild[p];
+			while (nextSibling[previous] != node)
+				previous = nextSibling[previous];
+			nextSibling[previous] = nextSibling[node];
+		}
+		nextSibling[node] = NONE;
+		// free the subtree without recursion : children are pushed on the
+		// free list, and the list is scanned until the deleted part is done
+		int n = node;
+		while (n != NONE) {
+			int child = firstChild[n];
+			while (child != NONE) {
+				final int sibling = nextSibling[child];
+				nextSibling[child] = nextSibling[n];
+				nextSibling[n] = child;
+				child = sibling;
+			}
+			final int next = nextSibling[n];
+			release(n);
+			n = next;
+		}
+	}
+
+	private void release(int node) {
+		moves[node] = Move.NONE;
+		parent[node] = firstChild[node] = NONE;
+		nextSibling[node] = freeList;
+		freeList = node;
+		size--;
+	}
+
+	private int allocate() {
+		size++;
+		if (freeList != NONE) {
+			final int node = freeList;
+			freeList = nextSibling[node];
+			return node;
+		}
+		if (capacity == moves.length) {
+			final int length = capacity * 2;
+			moves = grow(moves, length);
+			parent = grow(parent, length);
+			firstChild = grow(firstChild, length);
+			nextSibling = grow(nextSibling, length);
+			final long largerKeys[] = new long[length];
+			System.arraycopy(keys, 0, largerKeys, 0, keys.length);
+			keys = largerKeys;
+		}
+		return capacity++;
+	}
+
+	private static int[] grow(int array[], int length) {
+		final int larger[] = new int[length];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+}
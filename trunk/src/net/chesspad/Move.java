@@ -18,26 +18,27 @@
 
 package net.chesspad;
 
-import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * A move.
+ * Moves are packed in a single int (see pack) by the move generator ; this
+ * class is a thin view over the packed form for the user interface.
  * @author Jean-Francois Romang <info at chesspad dot net>
  *
  */
 public class Move implements java.io.Serializable {
 
-	private static final long serialVersionUID = 5802562010518043883L;
+	private static final long serialVersionUID = -3341958270846120517L;
 
 	// ♔ ♚ ♕ ♛ ♖ ♜ ♗ ♝ ♘ ♞ ♙ ♟
 	// http://en.wikipedia.org/wiki/Algebraic_chess_notation
 	// http://en.wikipedia.org/wiki/Chess_symbols_in_Unicode
 
-	public int movingPiece, capturedPiece, promotionPiece;
-
-	public int from, to;
+	// packed move : from (bits 0-5), to (6-11), moving piece (12-15),
+	// captured piece (16-19), promotion piece (20-23)
+	private final int move;
 	public String algebraicNotation=null;
 	private static Pattern movePattern;
 	private static char pieceName[] = { 'X', 'X', 'n', 'b', 'r', 'q', 'X', 'X',
@@ -49,21 +50,18 @@ public class Move implements java.io.Serializable {
 	}
 
 	public Move(int piece, int from, int to) {
-		this.movingPiece = piece;
-		this.from = from;
-		this.to = to;
-		this.capturedPiece = Position.EMPTY;
-		this.promotionPiece = Position.EMPTY;
-
+		this.move = pack(piece, from, to, Position.EMPTY, Position.EMPTY);
 	}
 
 	public Move(int piece, int from, int to, int capture, int promotion) {
-		this.movingPiece = piece;
-		this.from = from;
-		this.to = to;
-		this.capturedPiece = capture;
-		this.promotionPiece = promotion;
+		this.move = pack(piece, from, to, capture, promotion);
+	}
 
+	/**
+	 * @param move a packed move
+	 */
+	Move(int move) {
+		this.move = move;
 	}
 
 	Move(String moveString, Position p) {
@@ -72,18 +70,17 @@ public class Move implements java.io.Serializable {
 			// TODO
 			System.out.println("move does not match:" + moveString);
 			// Log.e("Move","move does not match:"+moveString);
-			movingPiece = capturedPiece = promotionPiece = Position.EMPTY;
-			from = to = -1;
+			move = NONE;
 			return;
 		}
 
-		from = (m.group(1).charAt(0) - 'a')
+		final int from = (m.group(1).charAt(0) - 'a')
 				+ ((8 - Character.getNumericValue(m.group(1).charAt(1))) * 8);
-		to = (m.group(2).charAt(0) - 'a')
+		final int to = (m.group(2).charAt(0) - 'a')
 				+ ((8 - Character.getNumericValue(m.group(2).charAt(1))) * 8);
 
-		movingPiece = p.pieceAt(from); // movingPiece
-		capturedPiece = p.pieceAt(to); // capturedPiece
+		final int movingPiece = p.pieceAt(from); // movingPiece
+		int capturedPiece = p.pieceAt(to); // capturedPiece
 
 		// enPassant capture
 		if (to == p.enPassantSquare && movingPiece == Position.W_PAWN)
@@ -92,7 +89,7 @@ public class Move implements java.io.Serializable {
 			capturedPiece = Position.W_PAWN;
 
 		// promotionPiece
-		promotionPiece = Position.EMPTY;
+		int promotionPiece = Position.EMPTY;
 		if (m.group(3).length() != 0)
 			switch (m.group(3).charAt(0)) {
 			case 'n':
@@ -114,6 +111,67 @@ public class Move implements java.io.Serializable {
 			default:
 				break;
 			}
+
+		move = pack(movingPiece, from, to, capturedPiece, promotionPiece);
+	}
+
+	/**
+	 * The packed value of no move at all
+	 */
+	static final int NONE = 0;
+
+	/**
+	 * Packs a move in a single int
+	 */
+	static int pack(int piece, int from, int to, int capture, int promotion) {
+		return from | (to << 6) | (piece << 12) | (capture << 16) | (promotion << 20);
+	}
+
+	static int from(int move) {
+		return move & 0x3F;
+	}
+
+	static int to(int move) {
+		return (move >>> 6) & 0x3F;
+	}
+
+	static int piece(int move) {
+		return (move >>> 12) & 0xF;
+	}
+
+	static int captured(int move) {
+		return (move >>> 16) & 0xF;
+	}
+
+	static int promotion(int move) {
+		return (move >>> 20) & 0xF;
+	}
+
+	/**
+	 * @return the packed form of this move
+	 */
+	public int getPacked() {
+		return move;
+	}
+
+	public int getFrom() {
+		return from(move);
+	}
+
+	public int getTo() {
+		return to(move);
+	}
+
+	public int getMovingPiece() {
+		return piece(move);
+	}
+
+	public int getCapturedPiece() {
+		return captured(move);
+	}
+
+	public int getPromotionPiece() {
+		return promotion(move);
 	}
 
 	@Override
@@ -125,18 +183,29 @@ public class Move implements java.io.Serializable {
 		if (obj instanceof Move) {
 			// Vérification des valeurs des attributs
 			final Move other = (Move) obj;
-			return (from == other.from && to == other.to
-					&& movingPiece == other.movingPiece
-					&& capturedPiece == other.capturedPiece && promotionPiece == other.promotionPiece);
+			return (move == other.move);
 		}
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return move;
+	}
+
 	@Override
 	public String toString() {
+		return toString(move);
+	}
+
+	/**
+	 * @return the UCI string of a packed move
+	 */
+	static String toString(int move) {
+		final int promotionPiece = promotion(move);
 		String moveString = "";
-		moveString += Position.squareName[from];
-		moveString += Position.squareName[to];
+		moveString += Position.squareName[from(move)];
+		moveString += Position.squareName[to(move)];
 		if (promotionPiece != Position.EMPTY)
 			moveString += pieceName[promotionPiece];
 		return moveString;
@@ -148,76 +217,77 @@ public class Move implements java.io.Serializable {
 	//private static final String pieceNames[]={ "", "", "N", "B", "R", "Q", "K", "", "N", "B", "R", "Q", "K"};
     private static final String filesName[]={"a","b","c","d","e","f","g","h"};
 	
+	/**
+	 * Standard algebraic notation of this legal move in the position p ;
+	 * p is left unchanged
+	 */
 	public String toAlgebraicNotation(Position p)
 	{
 		if(algebraicNotation!=null) return algebraicNotation;
+		final int movingPiece = getMovingPiece(), capturedPiece = getCapturedPiece(), promotionPiece = getPromotionPiece();
+		final int from = getFrom(), to = getTo();
 		
 	    String moveString=pieceNames[movingPiece]+"";
-	    Vector<Move> moves=p.getLegalMoves();
 
 	    //castling
-	    if(movingPiece==Position.W_KING && from==Position.E1 && to==Position.G1) return algebraicNotation="0-0";
-	    if(movingPiece==Position.W_KING && from==Position.E1 && to==Position.C1) return algebraicNotation="0-0-0";
-	    if(movingPiece==Position.B_KING && from==Position.E8 && to==Position.G8) return algebraicNotation="0-0";
-	    if(movingPiece==Position.B_KING && from==Position.E8 && to==Position.C8) return algebraicNotation="0-0-0";
-
-	    //desambiguisation ici
-	    if(movingPiece!=Position.W_PAWN && movingPiece!=Position.B_PAWN)
-	    {
-	        Vector<Integer> identicalPieces=new Vector<Integer>();
-	        for(Move m :moves)
-	        {
-	            if(m.movingPiece==movingPiece && m.to==to && !identicalPieces.contains(m.from) && m.from!=from)
-	                identicalPieces.add(from);
-	        }
-
-	        if(!identicalPieces.isEmpty())
-	        {
-	            boolean sameRank=false;
-	            boolean sameFile=false;
-	            for(int i : identicalPieces)
-	            {
-	                if((i%8) == (from%8)) sameFile=true;
-	                if((i/8) == (from/8)) sameRank=true;
-	            }
-	            if(sameRank && !sameFile) moveString+=filesName[from%8];
-	            else if(sameFile && !sameRank) moveString+=Integer.toString(8-(from/8));
-	            else moveString+=filesName[from%8]+Integer.toString(8-(from/8));
-	        }
-	    }
-
-	    //capture
-	    if(capturedPiece!=Position.EMPTY)
+	    if((movingPiece==Position.W_KING || movingPiece==Position.B_KING) && Math.abs(to-from)==2)
+	    	moveString=(to>from) ? "0-0" : "0-0-0";
+	    else
 	    {
-	        if(movingPiece==Position.W_PAWN || movingPiece==Position.B_PAWN)
-	        {
-	            moveString+=filesName[from%8];
-	        }
-	        moveString+="x";
-	    }
+		    //desambiguisation ici
+		    if(movingPiece!=Position.W_PAWN && movingPiece!=Position.B_PAWN)
+		    {
+		    	final MoveList moves=new MoveList();
+		    	p.generateLegalMoves(moves);
+		        boolean ambiguous=false, sameRank=false, sameFile=false;
+		        for(int i=0;i<moves.size();i++)
+		        {
+		        	final int m=moves.get(i);
+		            if(piece(m)==movingPiece && to(m)==to && from(m)!=from)
+		            {
+		            	ambiguous=true;
+		            	if((from(m)%8) == (from%8)) sameFile=true;
+		            	if((from(m)/8) == (from/8)) sameRank=true;
+		            }
+		        }
 
-	    //destination
-	    moveString+=Position.squareName[to];
+		        if(ambiguous)
+		        {
+		            if(!sameFile) moveString+=filesName[from%8];
+		            else if(!sameRank) moveString+=Integer.toString(8-(from/8));
+		            else moveString+=filesName[from%8]+Integer.toString(8-(from/8));
+		        }
+		    }
 
-	    //en passant
-	    if((capturedPiece!=Position.EMPTY) && p.pieceAt(to)==Position.EMPTY)
-	        moveString+=" e.p.";
+		    //capture
+		    if(capturedPiece!=Position.EMPTY)
+		    {
+		        if(movingPiece==Position.W_PAWN || movingPiece==Position.B_PAWN)
+		        {
+		            moveString+=filesName[from%8];
+		        }
+		        moveString+="x";
+		    }
 
-	    //promotion
-	    if(promotionPiece!=Position.EMPTY)
-	        moveString+=pieceNames[promotionPiece];
+		    //destination
+		    moveString+=Position.squareName[to];
 
-	    //TODO check & checkmate
-		p.makeMove(this);
-		if(p.isAttacked(p.kingSquare(p.sideToPlay()), p.sideToPlay() ? Position.BLACK : Position.WHITE))
-			moveString+="+"; //TODO checkmate
-	    /*
-	    Position testPosition=(Position)p.clone();
-	    testPosition.makeMove(this);
+		    //en passant
+		    if((capturedPiece!=Position.EMPTY) && p.pieceAt(to)==Position.EMPTY)
+		        moveString+=" e.p.";
 
-	    if(testPosition.isCheckMated()) moveString+="#";
-	    else if(testPosition.isInCheck()) moveString+="+";*/
+		    //promotion
+		    if(promotionPiece!=Position.EMPTY)
+		        moveString+=pieceNames[promotionPiece];
+	    }
 
+	    //check & checkmate : the move is only made to look for a reply
+		if(p.givesCheck(move))
+		{
+			p.makeMove(move);
+			moveString+=p.hasLegalMove() ? "+" : "#";
+			p.unmakeMove(move);
+		}
 
 	    algebraicNotation=moveString;
 	    return moveString;
@@ -225,11 +295,11 @@ public class Move implements java.io.Serializable {
 	
 	public String toFastNotation()
 	{
-		String moveString = pieceNames[movingPiece];
-		moveString += Position.squareName[from]+"-";
-		moveString += Position.squareName[to];
-		if (promotionPiece != Position.EMPTY)
-			moveString += pieceName[promotionPiece];
+		String moveString = pieceNames[getMovingPiece()];
+		moveString += Position.squareName[getFrom()]+"-";
+		moveString += Position.squareName[getTo()];
+		if (getPromotionPiece() != Position.EMPTY)
+			moveString += pieceName[getPromotionPiece()];
 		return moveString;
 	}
 	
@@ -0,0 +1,60 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * A reusable list of packed moves, filled by the move generator.
+ * Keep one list per ply and clear it instead of allocating a new one.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class MoveList {
+
+	// no chess position has more than 218 legal moves
+	static final int MAX_MOVES = 256;
+
+	private final int moves[] = new int[MAX_MOVES];
+	private int size;
+
+	void add(int move) {
+		moves[size++] = move;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	void set(int index, int move) {
+		moves[index] = move;
+	}
+
+	int get(int index) {
+		return moves[index];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int move) {
+		for (int i = 0; i < size; i++)
+			if (moves[i] == move)
+				return true;
+		return false;
+	}
+}
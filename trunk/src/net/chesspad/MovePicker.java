@@ -0,0 +1,189 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Yields the legal moves of a position one at a time, by stages : the hint
+ * move, winning captures, promotions, quiet moves and losing captures.
+ * Each kind of move is only generated when the previous stages are exhausted,
+ * so a caller that stops early does not pay for the whole list.
+ * The position must not change while moves are picked.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class MovePicker {
+
+	private static final int HINT = 0, INIT_CAPTURES = 1, GOOD_CAPTURES = 2,
+			INIT_QUIETS = 3, PROMOTIONS = 4, QUIETS = 5, BAD_CAPTURES = 6,
+			DONE = 7;
+
+	private final Position position;
+	private final MoveList captures = new MoveList();
+	private final MoveList quiets = new MoveList();
+	private final int scores[] = new int[MoveList.MAX_MOVES];
+	private final int badCaptures[] = new int[MoveList.MAX_MOVES];
+	private int badCount;
+
+	private int hintMove;
+	private boolean capturesGenerated, quietsGenerated;
+	private int stage;
+	private int index;
+
+	MovePicker(Position position) {
+		this.position = position;
+		reset(Move.NONE);
+	}
+
+	/**
+	 * Starts picking again from the first stage, so one picker can be
+	 * reused for each node at the same ply.
+	 * @param hintMove a move to try first (hash or hint move), or Move.NONE
+	 */
+	void reset(int hintMove) {
+		this.hintMove = hintMove;
+		capturesGenerated = quietsGenerated = false;
+		badCount = 0;
+		stage = HINT;
+		index = 0;
+	}
+
+	/**
+	 * @return the next legal move, or Move.NONE when all the moves were returned
+	 */
+	int next() {
+		while (true) {
+			switch (stage) {
+			case HINT:
+				stage = INIT_CAPTURES;
+				if (hintMove != Move.NONE && isLegalHint())
+					return hintMove;
+				hintMove = Move.NONE;
+				break;
+
+			case INIT_CAPTURES:
+				generateCaptures();
+				for (int i = 0; i < captures.size(); i++)
+					scores[i] = mvvLva(captures.get(i));
+				index = 0;
+				stage = GOOD_CAPTURES;
+				break;
+
+			case GOOD_CAPTURES:
+				while (index < captures.size()) {
+					final int m = pickBest(captures);
+					if (m == hintMove)
+						continue;
+					if (!isWinningCapture(m)) {
+						badCaptures[badCount++] = m;
+						continue;
+					}
+					return m;
+				}
+				stage = INIT_QUIETS;
+				break;
+
+			case INIT_QUIETS:
+				generateQuiets();
+				index = 0;
+				stage = PROMOTIONS;
+				break;
+
+			case PROMOTIONS:
+				while (index < quiets.size()) {
+					final int m = quiets.get(index++);
+					if (Move.promotion(m) != Position.EMPTY && m != hintMove)
+						return m;
+				}
+				index = 0;
+				stage = QUIETS;
+				break;
+
+			case QUIETS:
+				while (index < quiets.size()) {
+					final int m = quiets.get(index++);
+					if (Move.promotion(m) == Position.EMPTY && m != hintMove)
+						return m;
+				}
+				index = 0;
+				stage = BAD_CAPTURES;
+				break;
+
+			case BAD_CAPTURES:
+				if (index < badCount)
+					return badCaptures[index++];
+				stage = DONE;
+				break;
+
+			default:
+				return Move.NONE;
+			}
+		}
+	}
+
+	/**
+	 * The hint may come from another position, so it is checked on its own
+	 * before any move is generated
+	 */
+	private boolean isLegalHint() {
+		return position.isLegal(hintMove);
+	}
+
+	private void generateCaptures() {
+		if (!capturesGenerated)
+			position.generateLegalMoves(captures, Position.CAPTURES);
+		capturesGenerated = true;
+	}
+
+	private void generateQuiets() {
+		if (!quietsGenerated)
+			position.generateLegalMoves(quiets, Position.QUIETS);
+		quietsGenerated = true;
+	}
+
+	/**
+	 * Moves the best scored remaining move to the current index and returns it
+	 */
+	private int pickBest(MoveList list) {
+		int best = index;
+		for (int i = index + 1; i < list.size(); i++)
+			if (scores[i] > scores[best])
+				best = i;
+		final int m = list.get(best);
+		list.set(best, list.get(index));
+		scores[best] = scores[index];
+		list.set(index++, m);
+		return m;
+	}
+
+	/**
+	 * Most valuable victim first, then least valuable attacker ; the king is
+	 * the most valuable attacker
+	 */
+	private static int mvvLva(int m) {
+		return Position.seeValue[Move.captured(m)] * 16
+				- Position.seeValue[Move.piece(m)] / 100;
+	}
+
+	/**
+	 * A capture wins if it does not lose material once the exchange on the
+	 * target square is over
+	 */
+	private boolean isWinningCapture(int m) {
+		return position.seeGE(m, 0);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs perft on several threads and reports the count of each root move ("divide").
+ * The root moves, and optionally the replies to them, are split into tasks
+ * that each work on their own copy of the position.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class Perft {
+
+	private final int threads;
+	private final PerftTable table; // shared by all the tasks, may be null
+
+	private Move rootMoves[] = new Move[0];
+	private long rootCounts[] = new long[0];
+	private long nodes;
+	private long elapsedMillis;
+
+	/**
+	 * @param threads number of worker threads
+	 * @param table transposition table shared by the workers, or null
+	 */
+	Perft(int threads, PerftTable table) {
+		this.threads = threads;
+		this.table = table;
+	}
+
+	/**
+	 * Counts the leaf nodes of the position at this depth.
+	 * @param splitSecondPly also make one task per reply to each root move,
+	 * which balances the load better when there are few root moves
+	 * @return the number of nodes
+	 */
+	long run(final Position position, final int depth, boolean splitSecondPly)
+			throws InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		final MoveList list = new MoveList();
+		position.generateLegalMoves(list);
+
+		rootMoves = new Move[list.size()];
+		for (int i = 0; i < list.size(); i++)
+			rootMoves[i] = new Move(list.get(i));
+		final AtomicLongArray counts = new AtomicLongArray(rootMoves.length);
+
+		final Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+		for (int i = 0; i < list.size() && depth > 0; i++) {
+			final int rootIndex = i;
+			final int rootMove = list.get(i);
+			if (splitSecondPly && depth > 2) {
+				final MoveList replies = new MoveList();
+				position.makeMove(rootMove);
+				position.generateLegalMoves(replies);
+				position.unmakeMove(rootMove);
+				for (int j = 0; j < replies.size(); j++)
+					tasks.add(task(position, counts, rootIndex, rootMove, replies.get(j), depth - 2));
+			} else
+				tasks.add(task(position, counts, rootIndex, rootMove, Move.NONE, depth - 1));
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Future<Object> future : executor.invokeAll(tasks))
+				future.get();
+		} catch (final ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		rootCounts = new long[rootMoves.length];
+		nodes = (depth == 0) ? 1 : 0;
+		for (int i = 0; i < rootCounts.length; i++) {
+			rootCounts[i] = counts.get(i);
+			nodes += rootCounts[i];
+		}
+		elapsedMillis = System.currentTimeMillis() - startTime;
+		return nodes;
+	}
+
+	private Callable<Object> task(final Position position, final AtomicLongArray counts,
+			final int rootIndex, final int rootMove, final int reply, final int depth) {
+		// copy now : the caller's position must not be shared between threads
+		final Position p = (Position) position.clone();
+		return new Callable<Object>() {
+			public Object call() {
+				p.makeMove(rootMove);
+				if (reply != Move.NONE)
+					p.makeMove(reply);
+				counts.addAndGet(rootIndex, p.perft(depth, table));
+				return null;
+			}
+		};
+	}
+
+	Move[] getRootMoves() {
+		return rootMoves;
+	}
+
+	/**
+	 * @return the node count of each root move, in the order of getRootMoves()
+	 */
+	long[] getRootCounts() {
+		return rootCounts;
+	}
+
+	long getNodes() {
+		return nodes;
+	}
+
+	long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	long getNodesPerSecond() {
+		return nodes * 1000 / Math.max(1, elapsedMillis);
+	}
+
+	/**
+	 * @return one "move: count" line per root move, then the totals
+	 */
+	String divide() {
+		final StringBuilder s = new StringBuilder();
+		for (int i = 0; i < rootMoves.length; i++)
+			s.append(rootMoves[i]).append(": ").append(rootCounts[i]).append('\n');
+		s.append("Nodes: ").append(nodes).append('\n');
+		s.append("Time: ").append(elapsedMillis).append(" ms\n");
+		s.append("NPS: ").append(getNodesPerSecond()).append('\n');
+		return s.toString();
+	}
+}
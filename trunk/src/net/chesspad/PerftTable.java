@@ -0,0 +1,75 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Fixed size transposition table storing perft subtree counts by position
+ * hash key and depth.
+ * Each entry stores the node count and the key xored with it, so a torn
+ * write from another thread is detected as a miss instead of a wrong count.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class PerftTable {
+
+	private static final int ENTRY_SIZE = 16; // bytes : one long key, one long count
+
+	private final long keys[];
+	private final long counts[];
+	private final int mask;
+
+	/**
+	 * @param megabytes table size ; rounded down to a power of two number of entries
+	 */
+	PerftTable(int megabytes) {
+		final long entries = Math.max(1, (long) megabytes * 1024 * 1024 / ENTRY_SIZE);
+		final int size = (int) Long.highestOneBit(Math.min(entries, 1 << 30));
+		keys = new long[size];
+		counts = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @return the node count stored for this position and depth, or -1
+	 */
+	long probe(long hashKey, int depth) {
+		final long key = depthKey(hashKey, depth);
+		final int index = (int) key & mask;
+		final long count = counts[index];
+		return ((keys[index] ^ count) == key) ? count : -1;
+	}
+
+	void store(long hashKey, int depth, long count) {
+		final long key = depthKey(hashKey, depth);
+		final int index = (int) key & mask;
+		counts[index] = count;
+		keys[index] = key ^ count;
+	}
+
+	void clear() {
+		for (int i = 0; i <= mask; i++)
+			keys[i] = counts[i] = 0;
+	}
+
+	/**
+	 * Mixes the depth in the key so that each depth of a position gets its own slot
+	 */
+	private static long depthKey(long hashKey, int depth) {
+		return hashKey ^ (depth * 0x9E3779B97F4A7C15L);
+	}
+}
@@ -18,13 +18,17 @@
 
 package net.chesspad;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class stores all informations about a chess position.
- * It also has the move generation logic.
+ * The board is kept both as an array of pieces and as bitboards (one per
+ * piece type and per color) ; the move generation logic runs on the bitboards.
  * @author Jean-Francois Romang <info at chesspad dot net>
  */
 public class Position implements Cloneable, java.io.Serializable {
@@ -32,7 +36,7 @@ public class Position implements Cloneable, java.io.Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = -2789035824350562331L;
+	private static final long serialVersionUID = 4603189267319024158L;
 
 	public static final int A8 = 0, B8 = 1, C8 = 2, D8 = 3, E8 = 4, F8 = 5,
 			G8 = 6, H8 = 7, A7 = 8, B7 = 9, C7 = 10, D7 = 11, E7 = 12, F7 = 13,
@@ -53,8 +57,41 @@ public class Position implements Cloneable, java.io.Serializable {
 
 	public static final int BLACK = 0;
 
+	// kinds of moves generated by generateLegalMoves
+	static final int ALL_MOVES = 0, CAPTURES = 1, QUIETS = 2;
+
+	// castling rights bits
+	private static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2,
+			BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+
+	// castling rights kept when a piece leaves or arrives on a square
+	private static final int castlingMask[] = new int[64];
+
+	// piece values in centipawns, indexed by piece code (kings are not counted)
+	static final int pieceValue[] = { 0, 100, 325, 325, 500, 975, 0,
+			100, 325, 325, 500, 975, 0 };
+
+	// weight of each piece in the game phase, indexed by piece code
+	private static final int phaseWeight[] = { 0, 0, 1, 1, 2, 4, 0,
+			0, 1, 1, 2, 4, 0 };
+
+	/**
+	 * Game phase with all the pieces on the board
+	 */
+	static final int OPENING_PHASE = 24;
+
+	/**
+	 * Version of the binary encoding written by write(ByteBuffer)
+	 */
+	static final int BINARY_VERSION = 1;
+
+	/**
+	 * Largest binary encoding : version, occupancy, 32 pieces and state
+	 */
+	static final int MAX_BINARY_SIZE = 1 + 8 + 16 + 4;
+
 	public static final String squareName[];
-	private static Pattern fenPattern;
+	private static final String FEN_PIECES = " PNBRQKpnbrqk"; // indexed by piece code
 	static {
 		// whatever code is needed for initialization goes here
 		squareName = new String[] { "a8", "b8", "c8", "d8", "e8", "f8", "g8",
@@ -65,31 +102,79 @@ public class Position implements Cloneable, java.io.Serializable {
 				"h3", "a2", "b2", "c2", "d2", "e2", "f2", "g2", "h2", "a1",
 				"b1", "c1", "d1", "e1", "f1", "g1", "h1" };
 
-		fenPattern = Pattern
-				.compile("^((?:[PNBRQKpnbrqk1-8]{1,8}/){7,7}[PNBRQKpnbrqk1-8]{1,8})\\s([wb]{1,1})\\s((?:[KQkq]{1,4})|-)\\s((?:[a-h][36])|-)\\s(\\d\\d?)\\s(\\d+)$");
+		for (int i = 0; i < 64; i++)
+			castlingMask[i] = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+		castlingMask[E1] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+		castlingMask[H1] &= ~WHITE_KINGSIDE;
+		castlingMask[A1] &= ~WHITE_QUEENSIDE;
+		castlingMask[E8] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		castlingMask[H8] &= ~BLACK_KINGSIDE;
+		castlingMask[A8] &= ~BLACK_QUEENSIDE;
 
 	}
-	private int board[];
 
-	private boolean sideToPlay;
+	/**
+	 * How a game ends, returned by getTermination()
+	 */
+	public enum Termination {
+		NONE, CHECKMATE, STALEMATE, INSUFFICIENT_MATERIAL, FIFTY_MOVES, THREEFOLD_REPETITION
+	}
+
+	private transient int board[];
+	private transient long pieces[]; // bitboard of each piece type, indexed by piece code
+	private transient long colorPieces[]; // bitboard of all WHITE or BLACK pieces
+	private transient long occupied; // bitboard of all pieces
+	private transient int material[]; // value of the WHITE or BLACK pieces, kings excluded
+	private transient int phase; // sum of the phaseWeight of all pieces
+
+	private transient boolean sideToPlay;
 
-	private boolean kingSideCastlingAllowed[];
-	private boolean queenSideCastlingAllowed[];
-	public int enPassantSquare; // En passant target square in algebraic
+	private transient int castlingRights; // WHITE_KINGSIDE | WHITE_QUEENSIDE | ...
+	public transient int enPassantSquare; // En passant target square in algebraic
 								// notation. If there's no en passant target
 								// square, this is "–". If a pawn has just made
 								// a 2-square move, this is the position
 								// "behind" the pawn. This is recorded
 								// regardless of whether there is a pawn in
 								// position to make an en passant capture.
-	private int rule50moves; // Halfmove clock: This is the number of halfmoves
+	private transient int rule50moves; // Halfmove clock: This is the number of halfmoves
 								// since the last pawn advance or capture. This
 								// is used to determine if a draw can be claimed
 								// under the fifty-move rule.
-	private int fullMove; // Fullmove number: The number of the full move. It
+	private transient int fullMove; // Fullmove number: The number of the full move. It
 							// starts at 1, and is incremented after Black's
 							// move.
 
+	// One record per move played, packed as : captured piece (bits 0-3),
+	// castling rights (4-7), en passant square + 1 (8-15), rule50moves
+	// (16-31) and fullMove (32-63)
+	private transient long undoStack[];
+	private transient long keyHistory[]; // hash key before each move of undoStack
+	private transient int undoCount;
+
+	private transient long hashKey; // Zobrist key of pieces, side to play, castling and en passant
+
+	private transient int seeGain[]; // swap list of see(), kept to avoid allocations
+	private transient int pieceCount[]; // pieces checked by read(), kept to avoid allocations
+
+	// pieces of the side to play whose move can uncover a check, computed
+	// by givesCheck and kept until the position changes
+	private transient long discoverers;
+	private transient boolean discoverersValid;
+
+	/**
+	 * When true, every incremental hash key update is checked against a
+	 * key computed from scratch. Slow, only meant for debugging.
+	 */
+	static boolean hashSelfCheck = false;
+
+	/**
+	 * When true, perft returns the number of legal moves at depth 1 instead
+	 * of making each of them. Turn it off to also exercise makeMove and
+	 * unmakeMove on the leaves.
+	 */
+	static boolean perftBulkCounting = true;
+
 	public Position() {
 		initPosition("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
 	}
@@ -98,6 +183,15 @@ public class Position implements Cloneable, java.io.Serializable {
 		initPosition(fen);
 	}
 
+	/**
+	 * Reads a position written by write(), without setting up the start
+	 * position first
+	 */
+	Position(ByteBuffer buffer) {
+		allocate();
+		read(buffer);
+	}
+
 	public boolean blackPieceAt(int sq) {
 		return (pieceAt(sq) >= B_PAWN);
 	}
@@ -117,9 +211,13 @@ public class Position implements Cloneable, java.io.Serializable {
 		// On clone l'attribut de type Patronyme qui n'est pas immuable.
 		// personne.patronyme = (Patronyme) patronyme.clone();
 		p.board = (int[]) board.clone();
-		p.kingSideCastlingAllowed = (boolean[]) kingSideCastlingAllowed.clone();
-		p.queenSideCastlingAllowed = (boolean[]) queenSideCastlingAllowed
-				.clone();
+		p.pieces = (long[]) pieces.clone();
+		p.colorPieces = (long[]) colorPieces.clone();
+		p.material = (int[]) material.clone();
+		p.undoStack = (long[]) undoStack.clone();
+		p.keyHistory = (long[]) keyHistory.clone();
+		p.seeGain = new int[seeGain.length];
+		p.pieceCount = new int[pieceCount.length];
 
 		// on renvoie le clone
 		return p;
@@ -130,603 +228,922 @@ public class Position implements Cloneable, java.io.Serializable {
 	}
 
 	String getFEN() {
-		final String labels = " PNBRQKpnbrqk";
-		int buffer = 0;
-		String fen = "";
+		final StringBuilder fen = new StringBuilder(90);
+		appendFEN(fen);
+		return fen.toString();
+	}
 
-		for (int i = 0; i < 64; i++) {
-			if (pieceAt(i) == EMPTY)
-				buffer++;
-			else {
-				if (buffer != 0)
-					fen += buffer;
-				buffer = 0;
-				fen += labels.charAt(pieceAt(i));
-			}
-			if (i % 8 == 7) {
-				if (buffer != 0)
-					fen += buffer;
-				buffer = 0;
-				if (i < 63)
-					fen += "/";
+	/**
+	 * Writes the FEN of this position at the end of the builder
+	 */
+	void appendFEN(StringBuilder fen) {
+		for (int row = 0; row < 8; row++) {
+			int empty = 0;
+			for (int square = row * 8; square < row * 8 + 8; square++) {
+				if (board[square] == EMPTY)
+					empty++;
+				else {
+					if (empty != 0)
+						fen.append((char) ('0' + empty));
+					empty = 0;
+					fen.append(FEN_PIECES.charAt(board[square]));
+				}
 			}
+			if (empty != 0)
+				fen.append((char) ('0' + empty));
+			if (row < 7)
+				fen.append('/');
 		}
-		fen += (sideToPlay ? " w " : " b ");
-		if (kingSideCastlingAllowed[1])
-			fen += "K";
-		if (queenSideCastlingAllowed[1])
-			fen += "Q";
-		if (kingSideCastlingAllowed[0])
-			fen += "k";
-		if (queenSideCastlingAllowed[0])
-			fen += "q";
-
-		if (!kingSideCastlingAllowed[1] && !queenSideCastlingAllowed[1]
-				&& !kingSideCastlingAllowed[0] && !queenSideCastlingAllowed[0])
-			fen += "-";
-
-		fen += " ";
+		fen.append(sideToPlay ? " w " : " b ");
+		if ((castlingRights & WHITE_KINGSIDE) != 0)
+			fen.append('K');
+		if ((castlingRights & WHITE_QUEENSIDE) != 0)
+			fen.append('Q');
+		if ((castlingRights & BLACK_KINGSIDE) != 0)
+			fen.append('k');
+		if ((castlingRights & BLACK_QUEENSIDE) != 0)
+			fen.append('q');
+		if (castlingRights == 0)
+			fen.append('-');
+
+		fen.append(' ');
 		if (enPassantAllowed())
-			fen += squareName[enPassantSquare];
+			fen.append(squareName[enPassantSquare]);
 		else
-			fen += "-";
-
-		fen += " " + rule50moves;
-		fen += " " + fullMove;
+			fen.append('-');
 
-		return fen;
+		fen.append(' ').append(rule50moves);
+		fen.append(' ').append(fullMove);
 	}
 
 	Vector<Move> getLegalMoves() {
-		final Vector<Move> pseudoLegalMoves = getPseudoLegalMoves(false);
-
-		// Test move legality
-		for (int i = 0; i < pseudoLegalMoves.size(); i++) {
-			final Move m = pseudoLegalMoves.get(i);
-			final Position p = (Position) this.clone();
-			p.makeMove(m);
-			if (p.isAttacked(p.kingSquare(!p.sideToPlay),
-					p.sideToPlay ? Position.WHITE : Position.BLACK)) {
-				pseudoLegalMoves.remove(m);
-				i--;
+		final MoveList list = new MoveList();
+		generateLegalMoves(list);
+		return toVector(list);
+	}
+
+	Vector<Move> getPseudoLegalMoves(boolean capturesOnly) {
+		final MoveList list = new MoveList();
+		generatePseudoLegalMoves(list, capturesOnly);
+		return toVector(list);
+	}
+
+	private static Vector<Move> toVector(MoveList list) {
+		final Vector<Move> q = new Vector<Move>(list.size());
+		for (int i = 0; i < list.size(); i++)
+			q.addElement(new Move(list.get(i)));
+		return q;
+	}
+
+	/**
+	 * Fills the list with the legal moves of this position.
+	 * Checkers and pinned pieces are computed first so that only legal moves
+	 * are generated : in double check only the king moves, in single check
+	 * the other pieces must capture the checker or block, and pinned pieces
+	 * stay on the line between their king and the pinner.
+	 */
+	void generateLegalMoves(MoveList list) {
+		generateLegalMoves(list, ALL_MOVES);
+	}
+
+	/**
+	 * Fills the list with the legal moves of one kind.
+	 * @param type ALL_MOVES, CAPTURES (including en passant and capturing
+	 * promotions) or QUIETS (including castling and non capturing promotions)
+	 */
+	void generateLegalMoves(MoveList list, int type) {
+		list.clear();
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int them = us ^ 1;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN; // piece code offset of our pieces
+		final int enemyOffset = (B_PAWN - W_PAWN) - offset;
+		final long own = colorPieces[us];
+		final long enemies = colorPieces[them];
+		final int kingSquare = Bitboard.first(pieces[W_KING + offset]);
+		final long checkers = attackersTo(kingSquare, occupied) & enemies;
+		final long typeMask = (type == CAPTURES) ? enemies : (type == QUIETS) ? ~occupied : ~own;
+
+		// king moves, with the king removed so that it can not hide behind itself
+		final long withoutKing = occupied ^ Bitboard.bit(kingSquare);
+		long bb = Bitboard.KING_ATTACKS[kingSquare] & typeMask;
+		while (bb != 0) {
+			final int to = Bitboard.first(bb);
+			bb &= bb - 1;
+			if ((attackersTo(to, withoutKing) & enemies) == 0)
+				list.add(Move.pack(W_KING + offset, kingSquare, to, board[to], EMPTY));
+		}
+
+		// double check : only the king can move
+		if ((checkers & (checkers - 1)) != 0)
+			return;
+
+		// squares the other pieces may go to
+		final long targets;
+		if (checkers != 0)
+			targets = (checkers | Bitboard.BETWEEN[kingSquare][Bitboard.first(checkers)]) & typeMask;
+		else
+			targets = typeMask;
+
+		final long pinned = pinnedPieces(kingSquare, us);
+
+		// pawns
+		final int pawn = W_PAWN + offset;
+		final int forward = sideToPlay ? -8 : 8;
+		final long doublePushRank = sideToPlay ? Bitboard.RANK_2 : Bitboard.RANK_7;
+		bb = pieces[pawn];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			final long allowed = ((pinned & Bitboard.bit(from)) != 0)
+					? targets & Bitboard.LINE[kingSquare][from] : targets;
+			if (type != CAPTURES && board[from + forward] == EMPTY) {
+				if ((allowed & Bitboard.bit(from + forward)) != 0)
+					addPawnMoves(list, pawn, from, from + forward, EMPTY);
+				if ((doublePushRank & Bitboard.bit(from)) != 0
+						&& board[from + 2 * forward] == EMPTY
+						&& (allowed & Bitboard.bit(from + 2 * forward)) != 0)
+					list.add(Move.pack(pawn, from, from + 2 * forward, EMPTY, EMPTY));
 			}
+			if (type == QUIETS)
+				continue;
+			long captures = Bitboard.PAWN_ATTACKS[us][from] & enemies & allowed;
+			while (captures != 0) {
+				final int to = Bitboard.first(captures);
+				captures &= captures - 1;
+				addPawnMoves(list, pawn, from, to, board[to]);
+			}
+			if (enPassantSquare != -1
+					&& (Bitboard.PAWN_ATTACKS[us][from] & Bitboard.bit(enPassantSquare)) != 0
+					&& isLegalEnPassant(from, kingSquare, checkers, enemyOffset))
+				list.add(Move.pack(pawn, from, enPassantSquare,
+						sideToPlay ? B_PAWN : W_PAWN, EMPTY));
+		}
+
+		// pieces
+		bb = pieces[W_KNIGHT + offset] & ~pinned; // a pinned knight can never move
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			addMoves(list, W_KNIGHT + offset, from, Bitboard.KNIGHT_ATTACKS[from] & targets);
+		}
+		bb = pieces[W_BISHOP + offset] | pieces[W_ROOK + offset] | pieces[W_QUEEN + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			final int piece = board[from];
+			long attacks;
+			if (piece == W_BISHOP + offset)
+				attacks = Bitboard.bishopAttacks(from, occupied);
+			else if (piece == W_ROOK + offset)
+				attacks = Bitboard.rookAttacks(from, occupied);
+			else
+				attacks = Bitboard.queenAttacks(from, occupied);
+			if ((pinned & Bitboard.bit(from)) != 0)
+				attacks &= Bitboard.LINE[kingSquare][from];
+			addMoves(list, piece, from, attacks & targets);
 		}
 
-		return pseudoLegalMoves;
+		// castling, never possible in check
+		if (checkers == 0 && type != CAPTURES) {
+			if (sideToPlay) {
+				// short
+				if ((castlingRights & WHITE_KINGSIDE) != 0 && board[E1] == W_KING
+						&& board[F1] == EMPTY && board[G1] == EMPTY
+						&& !isAttacked(F1, BLACK) && !isAttacked(G1, BLACK))
+					list.add(Move.pack(W_KING, E1, G1, EMPTY, EMPTY));
+
+				// long
+				if ((castlingRights & WHITE_QUEENSIDE) != 0 && board[E1] == W_KING
+						&& board[B1] == EMPTY && board[C1] == EMPTY
+						&& board[D1] == EMPTY && !isAttacked(C1, BLACK)
+						&& !isAttacked(D1, BLACK))
+					list.add(Move.pack(W_KING, E1, C1, EMPTY, EMPTY));
+			} else {
+				// short
+				if ((castlingRights & BLACK_KINGSIDE) != 0 && board[E8] == B_KING
+						&& board[F8] == EMPTY && board[G8] == EMPTY
+						&& !isAttacked(F8, WHITE) && !isAttacked(G8, WHITE))
+					list.add(Move.pack(B_KING, E8, G8, EMPTY, EMPTY));
+
+				// long
+				if ((castlingRights & BLACK_QUEENSIDE) != 0 && board[E8] == B_KING
+						&& board[B8] == EMPTY && board[C8] == EMPTY
+						&& board[D8] == EMPTY && !isAttacked(C8, WHITE)
+						&& !isAttacked(D8, WHITE))
+					list.add(Move.pack(B_KING, E8, C8, EMPTY, EMPTY));
+			}
+		}
 	}
 
+	/**
+	 * Same rules as generateLegalMoves, but stops at the first legal move
+	 * found instead of building the list. Castling needs no test : when it
+	 * is legal, the king step towards the rook is legal too.
+	 * @return true if the side to play has at least one legal move
+	 */
+	boolean hasLegalMove() {
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN;
+		final int enemyOffset = (B_PAWN - W_PAWN) - offset;
+		final long own = colorPieces[us];
+		final long enemies = colorPieces[us ^ 1];
+		final int kingSquare = Bitboard.first(pieces[W_KING + offset]);
+
+		// king moves first, they are the most likely to exist
+		final long withoutKing = occupied ^ Bitboard.bit(kingSquare);
+		long bb = Bitboard.KING_ATTACKS[kingSquare] & ~own;
+		while (bb != 0) {
+			final int to = Bitboard.first(bb);
+			bb &= bb - 1;
+			if ((attackersTo(to, withoutKing) & enemies) == 0)
+				return true;
+		}
 
-	Vector<Move> getPseudoLegalMoves(boolean capturesOnly) {
-		final Vector<Move> q = new Vector<Move>();
+		final long checkers = attackersTo(kingSquare, occupied) & enemies;
+		if ((checkers & (checkers - 1)) != 0)
+			return false;
+		final long targets = (checkers != 0)
+				? checkers | Bitboard.BETWEEN[kingSquare][Bitboard.first(checkers)] : ~own;
+		final long pinned = pinnedPieces(kingSquare, us);
 
-		if (sideToPlay)
-			for (int from = 0; from < 64; from++)
-				switch (pieceAt(from)) {
-				case W_PAWN:
-					if (isEmpty(from - 8)) // avance une case
-					{
-						if (from >= A6) // avance normale
-							q.addElement(new Move(W_PAWN, from, from - 8));
-						else // promotion
-						{
-							q.addElement(new Move(W_PAWN, from, from - 8,
-									EMPTY, W_QUEEN));
-							q.addElement(new Move(W_PAWN, from, from - 8,
-									EMPTY, W_ROOK));
-							q.addElement(new Move(W_PAWN, from, from - 8,
-									EMPTY, W_BISHOP));
-							q.addElement(new Move(W_PAWN, from, from - 8,
-									EMPTY, W_KNIGHT));
-						}
-
-						if (from >= A2 && isEmpty(from - 16)) // avance deux
-																// cases
-							q.addElement(new Move(W_PAWN, from, from - 16));
-					}
-
-					if ((from % 8) > 0
-							&& (blackPieceAt(from - 9) || (from - 9) == enPassantSquare))
-						if (from >= A6) // capture normale
-							q.addElement(new Move(W_PAWN, from, from - 9,
-									(pieceAt(from - 9) == EMPTY) ? B_PAWN
-											: pieceAt(from - 9), EMPTY));
-						else // capture avec promotion
-						{
-							q.addElement(new Move(W_PAWN, from, from - 9,
-									pieceAt(from - 9), W_QUEEN));
-							q.addElement(new Move(W_PAWN, from, from - 9,
-									pieceAt(from - 9), W_ROOK));
-							q.addElement(new Move(W_PAWN, from, from - 9,
-									pieceAt(from - 9), W_BISHOP));
-							q.addElement(new Move(W_PAWN, from, from - 9,
-									pieceAt(from - 9), W_KNIGHT));
-						}
-
-					if ((from % 8) < 7
-							&& (blackPieceAt(from - 7) || (from - 7) == enPassantSquare))
-						if (from >= A6) // capture normale
-							q.addElement(new Move(W_PAWN, from, from - 7,
-									(pieceAt(from - 7) == EMPTY) ? B_PAWN
-											: pieceAt(from - 7), EMPTY));
-						else // capture avec promotion
-						{
-							q.addElement(new Move(W_PAWN, from, from - 7,
-									pieceAt(from - 7), W_QUEEN));
-							q.addElement(new Move(W_PAWN, from, from - 7,
-									pieceAt(from - 7), W_ROOK));
-							q.addElement(new Move(W_PAWN, from, from - 7,
-									pieceAt(from - 7), W_BISHOP));
-							q.addElement(new Move(W_PAWN, from, from - 7,
-									pieceAt(from - 7), W_KNIGHT));
-						}
-					break;
+		bb = pieces[W_KNIGHT + offset] & ~pinned;
+		while (bb != 0) {
+			if ((Bitboard.KNIGHT_ATTACKS[Bitboard.first(bb)] & targets) != 0)
+				return true;
+			bb &= bb - 1;
+		}
+		bb = pieces[W_BISHOP + offset] | pieces[W_ROOK + offset] | pieces[W_QUEEN + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			final int piece = board[from];
+			long attacks;
+			if (piece == W_BISHOP + offset)
+				attacks = Bitboard.bishopAttacks(from, occupied);
+			else if (piece == W_ROOK + offset)
+				attacks = Bitboard.rookAttacks(from, occupied);
+			else
+				attacks = Bitboard.queenAttacks(from, occupied);
+			if ((pinned & Bitboard.bit(from)) != 0)
+				attacks &= Bitboard.LINE[kingSquare][from];
+			if ((attacks & targets) != 0)
+				return true;
+		}
 
-				case W_KNIGHT: {
-					if (from >= A6 && (from % 8) > 0
-							&& (isEmpty(from - 17) || blackPieceAt(from - 17)))
-						q.addElement(new Move(W_KNIGHT, from, from - 17,
-								pieceAt(from - 17), EMPTY));
-					if (from >= A6 && (from % 8) < 7
-							&& (isEmpty(from - 15) || blackPieceAt(from - 15)))
-						q.addElement(new Move(W_KNIGHT, from, from - 15,
-								pieceAt(from - 15), EMPTY));
-					if (from >= A7 && (from % 8) < 6
-							&& (isEmpty(from - 6) || blackPieceAt(from - 6)))
-						q.addElement(new Move(W_KNIGHT, from, from - 6,
-								pieceAt(from - 6), EMPTY));
-					if (from < A1 && (from % 8) < 6
-							&& (isEmpty(from + 10) || blackPieceAt(from + 10)))
-						q.addElement(new Move(W_KNIGHT, from, from + 10,
-								pieceAt(from + 10), EMPTY));
-					if (from < A2 && (from % 8) < 7
-							&& (isEmpty(from + 17) || blackPieceAt(from + 17)))
-						q.addElement(new Move(W_KNIGHT, from, from + 17,
-								pieceAt(from + 17), EMPTY));
-					if (from < A2 && (from % 8) > 0
-							&& (isEmpty(from + 15) || blackPieceAt(from + 15)))
-						q.addElement(new Move(W_KNIGHT, from, from + 15,
-								pieceAt(from + 15), EMPTY));
-					if (from < A1 && (from % 8) > 1
-							&& (isEmpty(from + 6) || blackPieceAt(from + 6)))
-						q.addElement(new Move(W_KNIGHT, from, from + 6,
-								pieceAt(from + 6), EMPTY));
-					if (from >= A7 && (from % 8) > 1
-							&& (isEmpty(from - 10) || blackPieceAt(from - 10)))
-						q.addElement(new Move(W_KNIGHT, from, from - 10,
-								pieceAt(from - 10), EMPTY));
-					break;
-				}
+		final int forward = sideToPlay ? -8 : 8;
+		final long doublePushRank = sideToPlay ? Bitboard.RANK_2 : Bitboard.RANK_7;
+		bb = pieces[W_PAWN + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			final long allowed = ((pinned & Bitboard.bit(from)) != 0)
+					? targets & Bitboard.LINE[kingSquare][from] : targets;
+			long moves = Bitboard.PAWN_ATTACKS[us][from] & enemies;
+			if (board[from + forward] == EMPTY) {
+				moves |= Bitboard.bit(from + forward);
+				if ((doublePushRank & Bitboard.bit(from)) != 0
+						&& board[from + 2 * forward] == EMPTY)
+					moves |= Bitboard.bit(from + 2 * forward);
+			}
+			if ((moves & allowed) != 0)
+				return true;
+			if (enPassantSquare != -1
+					&& (Bitboard.PAWN_ATTACKS[us][from] & Bitboard.bit(enPassantSquare)) != 0
+					&& isLegalEnPassant(from, kingSquare, checkers, enemyOffset))
+				return true;
+		}
+		return false;
+	}
 
-				case W_BISHOP: {
-					boolean cap = false;
-					for (int to = from - 9; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 9)
-						q.addElement(new Move(W_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 7; (!cap) && to >= 0 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 7)
-						q.addElement(new Move(W_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 9; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 9)
-						q.addElement(new Move(W_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 7; (!cap) && to < 64 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 7)
-						q.addElement(new Move(W_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+	/**
+	 * Checks one move without generating the others : the moving piece
+	 * belongs to the side to play and stands on its square, the captured
+	 * piece is the one on the target square (or the en passant pawn), the
+	 * piece can reach the target and promotes when it must. The king may
+	 * be left in check, except by castling.
+	 * @param move a packed move, possibly from another position
+	 */
+	boolean isPseudoLegal(int move) {
+		if (move == Move.NONE)
+			return false;
+		final int from = Move.from(move), to = Move.to(move);
+		final int piece = Move.piece(move), captured = Move.captured(move);
+		final int promotion = Move.promotion(move);
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN;
+		if (piece == EMPTY || board[from] != piece || (colorPieces[us] & Bitboard.bit(from)) == 0
+				|| (colorPieces[us] & Bitboard.bit(to)) != 0)
+			return false;
 
-				case W_ROOK: {
-					boolean cap = false;
-					for (int to = from - 8; (!cap) && to >= 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 8)
-						q.addElement(new Move(W_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 8; (!cap) && to < 64
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 8)
-						q.addElement(new Move(W_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 1; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 1)
-						q.addElement(new Move(W_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 1; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 1)
-						q.addElement(new Move(W_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+		final boolean enPassant = piece == W_PAWN + offset && to == enPassantSquare
+				&& board[to] == EMPTY && captured == B_PAWN - offset;
+		if (captured != board[to] && !enPassant)
+			return false;
+		if (captured == W_KING || captured == B_KING)
+			return false;
 
-				case W_QUEEN: {
-					boolean cap = false;
-					for (int to = from - 9; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 9)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 7; (!cap) && to >= 0 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 7)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 9; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 9)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 7; (!cap) && to < 64 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 7)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 8; (!cap) && to >= 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 8)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 8; (!cap) && to < 64
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 8)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 1; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to += 1)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 1; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = blackPieceAt(to))); to -= 1)
-						q.addElement(new Move(W_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+		if (piece == W_PAWN + offset) {
+			// promotion on the last rank, to a knight, bishop, rook or queen of our color
+			if ((to < A7 || to >= A1) != (promotion != EMPTY))
+				return false;
+			if (promotion != EMPTY && (promotion < W_KNIGHT + offset || promotion > W_QUEEN + offset))
+				return false;
+			final int forward = sideToPlay ? -8 : 8;
+			if (captured != EMPTY)
+				return (Bitboard.PAWN_ATTACKS[us][from] & Bitboard.bit(to)) != 0;
+			if (to == from + forward)
+				return true; // the target is empty
+			return to == from + 2 * forward && board[from + forward] == EMPTY
+					&& ((sideToPlay ? Bitboard.RANK_2 : Bitboard.RANK_7) & Bitboard.bit(from)) != 0;
+		}
+		if (promotion != EMPTY)
+			return false;
 
-				case W_KING: {
-					if (from >= A7 && (from % 8) > 0
-							&& (isEmpty(from - 9) || (blackPieceAt(from - 9))))
-						q.addElement(new Move(W_KING, from, from - 9,
-								pieceAt(from - 9), EMPTY));
-					if (from >= A7
-							&& (isEmpty(from - 8) || (blackPieceAt(from - 8))))
-						q.addElement(new Move(W_KING, from, from - 8,
-								pieceAt(from - 8), EMPTY));
-					if (from >= A7 && (from % 8) < 7
-							&& (isEmpty(from - 7) || (blackPieceAt(from - 7))))
-						q.addElement(new Move(W_KING, from, from - 7,
-								pieceAt(from - 7), EMPTY));
-					if ((from % 8) < 7
-							&& (isEmpty(from + 1) || (blackPieceAt(from + 1))))
-						q.addElement(new Move(W_KING, from, from + 1,
-								pieceAt(from + 1), EMPTY));
-					if (from < A1 && (from % 8) < 7
-							&& (isEmpty(from + 9) || (blackPieceAt(from + 9))))
-						q.addElement(new Move(W_KING, from, from + 9,
-								pieceAt(from + 9), EMPTY));
-					if (from < A1
-							&& (isEmpty(from + 8) || (blackPieceAt(from + 8))))
-						q.addElement(new Move(W_KING, from, from + 8,
-								pieceAt(from + 8), EMPTY));
-					if (from < A1 && (from % 8) > 0
-							&& (isEmpty(from + 7) || (blackPieceAt(from + 7))))
-						q.addElement(new Move(W_KING, from, from + 7,
-								pieceAt(from + 7), EMPTY));
-					if ((from % 8) > 0
-							&& (isEmpty(from - 1) || (blackPieceAt(from - 1))))
-						q.addElement(new Move(W_KING, from, from - 1,
-								pieceAt(from - 1), EMPTY));
-
-					if (!capturesOnly) // castling
-					{
-						// short
-						if (kingSideCastlingAllowed[Position.WHITE]
-								&& from == E1 && board[F1] == EMPTY
-								&& board[G1] == EMPTY && !isAttacked(E1, BLACK)
-								&& !isAttacked(F1, BLACK)
-								&& !isAttacked(G1, BLACK))
-							q.addElement(new Move(W_KING, from, G1));
-
-						// long
-						if (queenSideCastlingAllowed[WHITE] && from == E1
-								&& board[B1] == EMPTY && board[C1] == EMPTY
-								&& board[D1] == EMPTY && !isAttacked(E1, BLACK)
-								&& !isAttacked(C1, BLACK)
-								&& !isAttacked(D1, BLACK))
-							q.addElement(new Move(W_KING, from, C1));
-					}
-					break;
-				}
+		switch (piece - offset) {
+		case W_KNIGHT:
+			return (Bitboard.KNIGHT_ATTACKS[from] & Bitboard.bit(to)) != 0;
+		case W_BISHOP:
+			return (Bitboard.bishopAttacks(from, occupied) & Bitboard.bit(to)) != 0;
+		case W_ROOK:
+			return (Bitboard.rookAttacks(from, occupied) & Bitboard.bit(to)) != 0;
+		case W_QUEEN:
+			return (Bitboard.queenAttacks(from, occupied) & Bitboard.bit(to)) != 0;
+		default: // king
+			if ((Bitboard.KING_ATTACKS[from] & Bitboard.bit(to)) != 0)
+				return true;
+			return isCastlingAllowed(from, to);
+		}
+	}
 
-				default:
-					break;
-				}
-		else
-			for (int from = 0; from < 64; from++)
-				switch (pieceAt(from)) {
-				case B_PAWN:
-					if (isEmpty(from + 8)) // avance une case
-					{
-						if (from < A2) // avance normale
-							q.addElement(new Move(B_PAWN, from, from + 8));
-						else // promotion
-						{
-							q.addElement(new Move(B_PAWN, from, from + 8,
-									EMPTY, B_QUEEN));
-							q.addElement(new Move(B_PAWN, from, from + 8,
-									EMPTY, B_ROOK));
-							q.addElement(new Move(B_PAWN, from, from + 8,
-									EMPTY, B_BISHOP));
-							q.addElement(new Move(B_PAWN, from, from + 8,
-									EMPTY, B_KNIGHT));
-						}
-
-						if (from < A6 && isEmpty(from + 16)) // avance deux
-																// cases
-							q.addElement(new Move(B_PAWN, from, from + 16));
-					}
-
-					if ((from % 8) > 0
-							&& (whitePieceAt(from + 7) || (from + 7) == enPassantSquare))
-						if (from < A2) // capture normale
-							q.addElement(new Move(B_PAWN, from, from + 7,
-									(pieceAt(from + 7) == EMPTY) ? W_PAWN
-											: pieceAt(from + 7), EMPTY));
-						else // capture avec promotion
-						{
-							q.addElement(new Move(B_PAWN, from, from + 7,
-									pieceAt(from + 7), B_QUEEN));
-							q.addElement(new Move(B_PAWN, from, from + 7,
-									pieceAt(from + 7), B_ROOK));
-							q.addElement(new Move(B_PAWN, from, from + 7,
-									pieceAt(from + 7), B_BISHOP));
-							q.addElement(new Move(B_PAWN, from, from + 7,
-									pieceAt(from + 7), B_KNIGHT));
-						}
-
-					if ((from % 8) < 7
-							&& (whitePieceAt(from + 9) || (from + 9) == enPassantSquare))
-						if (from < A2) // capture normale
-							q.addElement(new Move(B_PAWN, from, from + 9,
-									(pieceAt(from + 9) == EMPTY) ? W_PAWN
-											: pieceAt(from + 9), EMPTY));
-						else // capture avec promotion
-						{
-							q.addElement(new Move(B_PAWN, from, from + 9,
-									pieceAt(from + 9), B_QUEEN));
-							q.addElement(new Move(B_PAWN, from, from + 9,
-									pieceAt(from + 9), B_ROOK));
-							q.addElement(new Move(B_PAWN, from, from + 9,
-									pieceAt(from + 9), B_BISHOP));
-							q.addElement(new Move(B_PAWN, from, from + 9,
-									pieceAt(from + 9), B_KNIGHT));
-						}
-					break;
+	/**
+	 * Castling from the initial king square, with the rights, empty squares
+	 * between king and rook and no attacked square on the king's way
+	 */
+	private boolean isCastlingAllowed(int from, int to) {
+		final int enemy = sideToPlay ? BLACK : WHITE;
+		final int home = sideToPlay ? E1 : E8;
+		if (from != home)
+			return false;
+		if (to == home + 2) {
+			final int right = sideToPlay ? WHITE_KINGSIDE : BLACK_KINGSIDE;
+			return (castlingRights & right) != 0 && board[home + 1] == EMPTY
+					&& board[home + 2] == EMPTY && !isAttacked(home, enemy) && !isAttacked(home + 1, enemy)
+					&& !isAttacked(home + 2, enemy);
+		}
+		if (to == home - 2) {
+			final int right = sideToPlay ? WHITE_QUEENSIDE : BLACK_QUEENSIDE;
+			return (castlingRights & right) != 0 && board[home - 1] == EMPTY
+					&& board[home - 2] == EMPTY && board[home - 3] == EMPTY && !isAttacked(home, enemy)
+					&& !isAttacked(home - 1, enemy) && !isAttacked(home - 2, enemy);
+		}
+		return false;
+	}
 
-				case B_KNIGHT: {
-					if (from >= A6 && (from % 8) > 0
-							&& (isEmpty(from - 17) || whitePieceAt(from - 17)))
-						q.addElement(new Move(B_KNIGHT, from, from - 17,
-								pieceAt(from - 17), EMPTY));
-					if (from >= A6 && (from % 8) < 7
-							&& (isEmpty(from - 15) || whitePieceAt(from - 15)))
-						q.addElement(new Move(B_KNIGHT, from, from - 15,
-								pieceAt(from - 15), EMPTY));
-					if (from >= A7 && (from % 8) < 6
-							&& (isEmpty(from - 6) || whitePieceAt(from - 6)))
-						q.addElement(new Move(B_KNIGHT, from, from - 6,
-								pieceAt(from - 6), EMPTY));
-					if (from < A1 && (from % 8) < 6
-							&& (isEmpty(from + 10) || whitePieceAt(from + 10)))
-						q.addElement(new Move(B_KNIGHT, from, from + 10,
-								pieceAt(from + 10), EMPTY));
-					if (from < A2 && (from % 8) < 7
-							&& (isEmpty(from + 17) || whitePieceAt(from + 17)))
-						q.addElement(new Move(B_KNIGHT, from, from + 17,
-								pieceAt(from + 17), EMPTY));
-					if (from < A2 && (from % 8) > 0
-							&& (isEmpty(from + 15) || whitePieceAt(from + 15)))
-						q.addElement(new Move(B_KNIGHT, from, from + 15,
-								pieceAt(from + 15), EMPTY));
-					if (from < A1 && (from % 8) > 1
-							&& (isEmpty(from + 6) || whitePieceAt(from + 6)))
-						q.addElement(new Move(B_KNIGHT, from, from + 6,
-								pieceAt(from + 6), EMPTY));
-					if (from >= A7 && (from % 8) > 1
-							&& (isEmpty(from - 10) || whitePieceAt(from - 10)))
-						q.addElement(new Move(B_KNIGHT, from, from - 10,
-								pieceAt(from - 10), EMPTY));
-					break;
-				}
+	/**
+	 * Checks one move without generating the others, with the same rules as
+	 * generateLegalMoves
+	 * @param move a packed move, possibly from another position
+	 */
+	boolean isLegal(int move) {
+		if (!isPseudoLegal(move))
+			return false;
+		final int from = Move.from(move), to = Move.to(move);
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN;
+		final long enemies = colorPieces[us ^ 1];
+		final int kingSquare = Bitboard.first(pieces[W_KING + offset]);
+
+		if (from == kingSquare) // castling was fully checked
+			return Math.abs(to - from) == 2
+					|| (attackersTo(to, occupied ^ Bitboard.bit(from)) & enemies) == 0;
+
+		final long checkers = attackersTo(kingSquare, occupied) & enemies;
+		if (Move.captured(move) != EMPTY && board[to] == EMPTY)
+			return isLegalEnPassant(from, kingSquare, checkers, (B_PAWN - W_PAWN) - offset);
+		if ((checkers & (checkers - 1)) != 0)
+			return false;
+		if (checkers != 0
+				&& ((checkers | Bitboard.BETWEEN[kingSquare][Bitboard.first(checkers)]) & Bitboard.bit(to)) == 0)
+			return false;
+		return (pinnedPieces(kingSquare, us) & Bitboard.bit(from)) == 0
+				|| (Bitboard.LINE[kingSquare][from] & Bitboard.bit(to)) != 0;
+	}
 
-				case B_BISHOP: {
-					boolean cap = false;
-					for (int to = from - 9; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 9)
-						q.addElement(new Move(B_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 7; (!cap) && to >= 0 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 7)
-						q.addElement(new Move(B_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 9; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 9)
-						q.addElement(new Move(B_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 7; (!cap) && to < 64 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 7)
-						q.addElement(new Move(B_BISHOP, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+	/**
+	 * @return the pieces of this color that are pinned on their king
+	 */
+	long pinnedPieces(int kingSquare, int color) {
+		return blockers(kingSquare, color ^ 1) & colorPieces[color];
+	}
 
-				case B_ROOK: {
-					boolean cap = false;
-					for (int to = from - 8; (!cap) && to >= 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 8)
-						q.addElement(new Move(B_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 8; (!cap) && to < 64
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 8)
-						q.addElement(new Move(B_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 1; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 1)
-						q.addElement(new Move(B_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 1; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 1)
-						q.addElement(new Move(B_ROOK, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+	/**
+	 * @return the pieces of both colors that are alone between this square
+	 * and a slider of the sniper color aiming at it
+	 */
+	private long blockers(int kingSquare, int sniperColor) {
+		final int offset = (sniperColor == WHITE) ? 0 : B_PAWN - W_PAWN;
+		final long queens = pieces[W_QUEEN + offset];
+		long snipers = (Bitboard.rookAttacks(kingSquare, 0) & (pieces[W_ROOK + offset] | queens))
+				| (Bitboard.bishopAttacks(kingSquare, 0) & (pieces[W_BISHOP + offset] | queens));
+		long result = 0;
+		while (snipers != 0) {
+			final int sniper = Bitboard.first(snipers);
+			snipers &= snipers - 1;
+			final long between = Bitboard.BETWEEN[kingSquare][sniper] & occupied;
+			if (between != 0 && (between & (between - 1)) == 0)
+				result |= between;
+		}
+		return result;
+	}
 
-				case B_QUEEN: {
-					boolean cap = false;
-					for (int to = from - 9; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 9)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 7; (!cap) && to >= 0 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 7)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 9; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 9)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 7; (!cap) && to < 64 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 7)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 8; (!cap) && to >= 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 8)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 8; (!cap) && to < 64
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 8)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from + 1; (!cap) && to < 64 && (to % 8) > 0
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to += 1)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					cap = false;
-					for (int to = from - 1; (!cap) && to >= 0 && (to % 8) < 7
-							&& (isEmpty(to) || (cap = whitePieceAt(to))); to -= 1)
-						q.addElement(new Move(B_QUEEN, from, to, pieceAt(to),
-								EMPTY));
-					break;
-				}
+	/**
+	 * Tells if a legal move of the side to play checks the enemy king,
+	 * without making it : direct checks from the target square, discovered
+	 * checks by a piece leaving the line between a slider and the king, and
+	 * the castling, en passant and promotion cases.
+	 */
+	boolean givesCheck(int move) {
+		final int from = Move.from(move), to = Move.to(move);
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN;
+		final int kingSquare = Bitboard.first(pieces[B_KING - offset]);
+		final long king = Bitboard.bit(kingSquare);
+		final int promotion = Move.promotion(move);
+		final int piece = (promotion != EMPTY) ? promotion : Move.piece(move);
+
+		// castling : only the rook can check
+		if (piece == W_KING + offset && Math.abs(to - from) == 2) {
+			final int rookSquare = (to > from) ? to - 1 : to + 1;
+			final long occupancy = (occupied ^ Bitboard.bit(from) ^ Bitboard.bit((to > from) ? to + 1 : to - 2))
+					| Bitboard.bit(to) | Bitboard.bit(rookSquare);
+			return (Bitboard.rookAttacks(rookSquare, occupancy) & king) != 0;
+		}
 
-				case B_KING: {
-					if (from >= A7 && (from % 8) > 0
-							&& (isEmpty(from - 9) || (whitePieceAt(from - 9))))
-						q.addElement(new Move(B_KING, from, from - 9,
-								pieceAt(from - 9), EMPTY));
-					if (from >= A7
-							&& (isEmpty(from - 8) || (whitePieceAt(from - 8))))
-						q.addElement(new Move(B_KING, from, from - 8,
-								pieceAt(from - 8), EMPTY));
-					if (from >= A7 && (from % 8) < 7
-							&& (isEmpty(from - 7) || (whitePieceAt(from - 7))))
-						q.addElement(new Move(B_KING, from, from - 7,
-								pieceAt(from - 7), EMPTY));
-					if ((from % 8) < 7
-							&& (isEmpty(from + 1) || (whitePieceAt(from + 1))))
-						q.addElement(new Move(B_KING, from, from + 1,
-								pieceAt(from + 1), EMPTY));
-					if (from < A1 && (from % 8) < 7
-							&& (isEmpty(from + 9) || (whitePieceAt(from + 9))))
-						q.addElement(new Move(B_KING, from, from + 9,
-								pieceAt(from + 9), EMPTY));
-					if (from < A1
-							&& (isEmpty(from + 8) || (whitePieceAt(from + 8))))
-						q.addElement(new Move(B_KING, from, from + 8,
-								pieceAt(from + 8), EMPTY));
-					if (from < A1 && (from % 8) > 0
-							&& (isEmpty(from + 7) || (whitePieceAt(from + 7))))
-						q.addElement(new Move(B_KING, from, from + 7,
-								pieceAt(from + 7), EMPTY));
-					if ((from % 8) > 0
-							&& (isEmpty(from - 1) || (whitePieceAt(from - 1))))
-						q.addElement(new Move(B_KING, from, from - 1,
-								pieceAt(from - 1), EMPTY));
-
-					if (!capturesOnly) // castling
-					{
-						// short
-						if (kingSideCastlingAllowed[BLACK] && from == E8
-								&& board[F8] == EMPTY && board[G8] == EMPTY
-								&& !isAttacked(E8, WHITE)
-								&& !isAttacked(F8, WHITE)
-								&& !isAttacked(G8, WHITE))
-							q.addElement(new Move(B_KING, from, G8));
-
-						// long
-						if (queenSideCastlingAllowed[BLACK] && from == E8
-								&& board[B8] == EMPTY && board[C8] == EMPTY
-								&& board[D8] == EMPTY && !isAttacked(E8, WHITE)
-								&& !isAttacked(C8, WHITE)
-								&& !isAttacked(D8, WHITE))
-							q.addElement(new Move(B_KING, from, C8));
-					}
-					break;
-				}
+		// direct check
+		final long occupancy = (occupied ^ Bitboard.bit(from)) | Bitboard.bit(to);
+		switch (piece - offset) {
+		case W_PAWN:
+			if ((Bitboard.PAWN_ATTACKS[us][to] & king) != 0)
+				return true;
+			break;
+		case W_KNIGHT:
+			if ((Bitboard.KNIGHT_ATTACKS[to] & king) != 0)
+				return true;
+			break;
+		case W_BISHOP:
+			if ((Bitboard.bishopAttacks(to, occupancy) & king) != 0)
+				return true;
+			break;
+		case W_ROOK:
+			if ((Bitboard.rookAttacks(to, occupancy) & king) != 0)
+				return true;
+			break;
+		case W_QUEEN:
+			if ((Bitboard.queenAttacks(to, occupancy) & king) != 0)
+				return true;
+			break;
+		}
 
-				default:
-					break;
-				}
+		// discovered check
+		if (!discoverersValid) {
+			discoverers = blockers(kingSquare, us) & colorPieces[us];
+			discoverersValid = true;
+		}
+		if ((discoverers & Bitboard.bit(from)) != 0 && (Bitboard.LINE[kingSquare][from] & Bitboard.bit(to)) == 0)
+			return true;
+
+		// en passant also removes the captured pawn from its line
+		if (Move.captured(move) != EMPTY && board[to] == EMPTY) {
+			final long afterCapture = occupancy ^ Bitboard.bit(to + (sideToPlay ? 8 : -8));
+			final long queens = pieces[W_QUEEN + offset];
+			return (Bitboard.rookAttacks(kingSquare, afterCapture) & (pieces[W_ROOK + offset] | queens)) != 0
+					|| (Bitboard.bishopAttacks(kingSquare, afterCapture) & (pieces[W_BISHOP + offset] | queens)) != 0;
+		}
+		return false;
+	}
 
-		if (capturesOnly)
-			for (int i = 0; i < q.size(); i++) {
-				final Move m = q.get(i);
-				if (m.capturedPiece == EMPTY) {
-					q.remove(m);
-					i--;
-				}
-				// if(m.capturedPiece==W_KING || m.capturedPiece==B_KING)
-				// std::cout<<"KINCPPPPPP!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!"<<std::endl;
+	/**
+	 * En passant removes two pawns from their squares, which can uncover an
+	 * attack on the king (even along the rank), so the resulting occupancy
+	 * is tested directly.
+	 */
+	private boolean isLegalEnPassant(int from, int kingSquare, long checkers, int enemyOffset) {
+		final int capturedSquare = enPassantSquare + (sideToPlay ? 8 : -8);
+		final long captured = Bitboard.bit(capturedSquare);
+		// a knight check can not be answered by en passant
+		if ((checkers & ~captured & (pieces[W_KNIGHT + enemyOffset] | pieces[W_PAWN + enemyOffset])) != 0)
+			return false;
+		final long occupancy = (occupied ^ Bitboard.bit(from) ^ captured) | Bitboard.bit(enPassantSquare);
+		final long queens = pieces[W_QUEEN + enemyOffset];
+		return (Bitboard.rookAttacks(kingSquare, occupancy) & (pieces[W_ROOK + enemyOffset] | queens)) == 0
+				&& (Bitboard.bishopAttacks(kingSquare, occupancy) & (pieces[W_BISHOP + enemyOffset] | queens)) == 0;
+	}
+
+	/**
+	 * Fills the list with the pseudo legal moves of this position (the king
+	 * may be left in check)
+	 */
+	void generatePseudoLegalMoves(MoveList list, boolean capturesOnly) {
+		list.clear();
+		final int us = sideToPlay ? WHITE : BLACK;
+		final int offset = sideToPlay ? 0 : B_PAWN - W_PAWN; // piece code offset of our pieces
+		final long enemies = colorPieces[us ^ 1];
+		final long targets = capturesOnly ? enemies : ~colorPieces[us];
+
+		// pawns
+		final int pawn = W_PAWN + offset;
+		final int forward = sideToPlay ? -8 : 8;
+		final long doublePushRank = sideToPlay ? Bitboard.RANK_2 : Bitboard.RANK_7;
+		long bb = pieces[pawn];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			if (!capturesOnly && board[from + forward] == EMPTY) {
+				addPawnMoves(list, pawn, from, from + forward, EMPTY);
+				if ((doublePushRank & Bitboard.bit(from)) != 0
+						&& board[from + 2 * forward] == EMPTY)
+					list.add(Move.pack(pawn, from, from + 2 * forward, EMPTY, EMPTY));
 			}
+			long captures = Bitboard.PAWN_ATTACKS[us][from] & enemies;
+			while (captures != 0) {
+				final int to = Bitboard.first(captures);
+				captures &= captures - 1;
+				addPawnMoves(list, pawn, from, to, board[to]);
+			}
+			if (enPassantSquare != -1
+					&& (Bitboard.PAWN_ATTACKS[us][from] & Bitboard.bit(enPassantSquare)) != 0)
+				list.add(Move.pack(pawn, from, enPassantSquare,
+						sideToPlay ? B_PAWN : W_PAWN, EMPTY));
+		}
 
-		return q;
+		// pieces
+		bb = pieces[W_KNIGHT + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			addMoves(list, W_KNIGHT + offset, from, Bitboard.KNIGHT_ATTACKS[from] & targets);
+		}
+		bb = pieces[W_BISHOP + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			addMoves(list, W_BISHOP + offset, from, Bitboard.bishopAttacks(from, occupied) & targets);
+		}
+		bb = pieces[W_ROOK + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			addMoves(list, W_ROOK + offset, from, Bitboard.rookAttacks(from, occupied) & targets);
+		}
+		bb = pieces[W_QUEEN + offset];
+		while (bb != 0) {
+			final int from = Bitboard.first(bb);
+			bb &= bb - 1;
+			addMoves(list, W_QUEEN + offset, from, Bitboard.queenAttacks(from, occupied) & targets);
+		}
+		bb = pieces[W_KING + offset];
+		if (bb != 0) {
+			final int from = Bitboard.first(bb);
+			addMoves(list, W_KING + offset, from, Bitboard.KING_ATTACKS[from] & targets);
+		}
+
+		if (!capturesOnly) // castling
+		{
+			if (sideToPlay) {
+				// short
+				if ((castlingRights & WHITE_KINGSIDE) != 0 && board[E1] == W_KING
+						&& board[F1] == EMPTY && board[G1] == EMPTY
+						&& !isAttacked(E1, BLACK) && !isAttacked(F1, BLACK)
+						&& !isAttacked(G1, BLACK))
+					list.add(Move.pack(W_KING, E1, G1, EMPTY, EMPTY));
+
+				// long
+				if ((castlingRights & WHITE_QUEENSIDE) != 0 && board[E1] == W_KING
+						&& board[B1] == EMPTY && board[C1] == EMPTY
+						&& board[D1] == EMPTY && !isAttacked(E1, BLACK)
+						&& !isAttacked(C1, BLACK) && !isAttacked(D1, BLACK))
+					list.add(Move.pack(W_KING, E1, C1, EMPTY, EMPTY));
+			} else {
+				// short
+				if ((castlingRights & BLACK_KINGSIDE) != 0 && board[E8] == B_KING
+						&& board[F8] == EMPTY && board[G8] == EMPTY
+						&& !isAttacked(E8, WHITE) && !isAttacked(F8, WHITE)
+						&& !isAttacked(G8, WHITE))
+					list.add(Move.pack(B_KING, E8, G8, EMPTY, EMPTY));
+
+				// long
+				if ((castlingRights & BLACK_QUEENSIDE) != 0 && board[E8] == B_KING
+						&& board[B8] == EMPTY && board[C8] == EMPTY
+						&& board[D8] == EMPTY && !isAttacked(E8, WHITE)
+						&& !isAttacked(C8, WHITE) && !isAttacked(D8, WHITE))
+					list.add(Move.pack(B_KING, E8, C8, EMPTY, EMPTY));
+			}
+		}
+	}
+
+	/**
+	 * Adds a move for each target square
+	 */
+	private void addMoves(MoveList list, int piece, int from, long targets) {
+		while (targets != 0) {
+			final int to = Bitboard.first(targets);
+			targets &= targets - 1;
+			list.add(Move.pack(piece, from, to, board[to], EMPTY));
+		}
+	}
+
+	/**
+	 * Adds a pawn move, or the four promotions if the pawn reaches the last rank
+	 */
+	private static void addPawnMoves(MoveList list, int pawn, int from, int to, int capture) {
+		if (to >= A7 && to < A1) {
+			list.add(Move.pack(pawn, from, to, capture, EMPTY));
+			return;
+		}
+		// promotion : pawn+4 is the queen of the same color, pawn+1 the knight
+		list.add(Move.pack(pawn, from, to, capture, pawn + 4));
+		list.add(Move.pack(pawn, from, to, capture, pawn + 3));
+		list.add(Move.pack(pawn, from, to, capture, pawn + 2));
+		list.add(Move.pack(pawn, from, to, capture, pawn + 1));
 	}
 
 	private void initPosition(String fen) {
+		allocate();
+		setFEN(fen);
+	}
+
+	private void allocate() {
 		board = new int[64];
-		kingSideCastlingAllowed = new boolean[2];
-		queenSideCastlingAllowed = new boolean[2];
+		pieces = new long[B_KING + 1];
+		colorPieces = new long[2];
+		material = new int[2];
+		undoStack = new long[64];
+		keyHistory = new long[64];
+		seeGain = new int[34]; // one more than the men on the board
+		pieceCount = new int[B_KING + 1];
+	}
 
-		setFEN(fen);
+	/**
+	 * @return the pieces of both colors attacking this square. Sliders are
+	 * blocked by the given occupancy, so removing pieces from it reveals
+	 * x-ray attackers
+	 */
+	long attackersTo(int square, long occupancy) {
+		final long queens = pieces[W_QUEEN] | pieces[B_QUEEN];
+		return (Bitboard.PAWN_ATTACKS[BLACK][square] & pieces[W_PAWN])
+				| (Bitboard.PAWN_ATTACKS[WHITE][square] & pieces[B_PAWN])
+				| (Bitboard.KNIGHT_ATTACKS[square] & (pieces[W_KNIGHT] | pieces[B_KNIGHT]))
+				| (Bitboard.KING_ATTACKS[square] & (pieces[W_KING] | pieces[B_KING]))
+				| (Bitboard.bishopAttacks(square, occupancy) & (pieces[W_BISHOP] | pieces[B_BISHOP] | queens))
+				| (Bitboard.rookAttacks(square, occupancy) & (pieces[W_ROOK] | pieces[B_ROOK] | queens));
+	}
+
+	/**
+	 * @return the pieces of this color attacking the square
+	 */
+	long attackersOf(int square, int attackerColor) {
+		return attackersTo(square, occupied) & colorPieces[attackerColor];
 	}
 
+	/**
+	 * @return true if a piece of this color attacks the square. Stops at the
+	 * first attacker found, without building the attacker set
+	 */
 	boolean isAttacked(int square, int attackerColor) {
-		final Position p = (Position) this.clone();
-		p.sideToPlay = (attackerColor == WHITE);
-		p.board[square] = p.sideToPlay ? B_PAWN : W_PAWN;
-		final Vector<Move> moves = p.getPseudoLegalMoves(true);
-		for (final Move m : moves)
-			if (m.to == square)
-				return true;
-		return false;
+		final int offset = (attackerColor == WHITE) ? 0 : B_PAWN - W_PAWN;
+		final long queens = pieces[W_QUEEN + offset];
+		// a square is attacked by a piece if that piece would be attacked
+		// from the square by the same kind of piece
+		return (Bitboard.PAWN_ATTACKS[attackerColor ^ 1][square] & pieces[W_PAWN + offset]) != 0
+				|| (Bitboard.KNIGHT_ATTACKS[square] & pieces[W_KNIGHT + offset]) != 0
+				|| (Bitboard.KING_ATTACKS[square] & pieces[W_KING + offset]) != 0
+				|| (Bitboard.bishopAttacks(square, occupied) & (pieces[W_BISHOP + offset] | queens)) != 0
+				|| (Bitboard.rookAttacks(square, occupied) & (pieces[W_ROOK + offset] | queens)) != 0;
+	}
+
+	/**
+	 * @return true if the king of the side to play is attacked
+	 */
+	public boolean isInCheck() {
+		return isAttacked(kingSquare(sideToPlay), sideToPlay ? BLACK : WHITE);
+	}
+
+	/**
+	 * Static exchange evaluation : the material won by this move if both
+	 * sides then keep capturing on its target square with their least
+	 * valuable piece, each side stopping when it is better to. Attackers
+	 * hidden behind other sliders (x-rays) join in ; pins are ignored.
+	 * @return the material balance for the moving side, in centipawns
+	 */
+	int see(int move) {
+		final int to = Move.to(move);
+		final int movingPiece = Move.piece(move);
+		if (isCastling(move))
+			return 0;
+
+		final int promotion = Move.promotion(move);
+		long occupancy = occupied ^ Bitboard.bit(Move.from(move));
+		if (Move.captured(move) != EMPTY && board[to] == EMPTY) // en passant
+			occupancy ^= Bitboard.bit(to + (movingPiece == W_PAWN ? 8 : -8));
+		long attackers = attackersTo(to, occupancy) & occupancy;
+
+		int depth = 0;
+		seeGain[0] = seeValue[Move.captured(move)];
+		int attackerValue = seeValue[movingPiece];
+		if (promotion != EMPTY) {
+			seeGain[0] += seeValue[promotion] - seeValue[W_PAWN];
+			attackerValue = seeValue[promotion];
+		}
+		int color = (movingPiece < B_PAWN) ? BLACK : WHITE; // side to capture next
+		while (true) {
+			depth++;
+			// gain if the next side captures the last attacker
+			seeGain[depth] = attackerValue - seeGain[depth - 1];
+			final long colorAttackers = attackers & colorPieces[color];
+			if (colorAttackers == 0)
+				break;
+			final int piece = leastValuablePiece(colorAttackers, color);
+			attackerValue = seeValue[piece];
+			occupancy ^= Bitboard.bit(Bitboard.first(colorAttackers & pieces[piece]));
+			attackers = revealAttackers(to, attackers, occupancy, piece);
+			color ^= 1;
+		}
+		while (--depth > 0)
+			seeGain[depth - 1] = -Math.max(-seeGain[depth - 1], seeGain[depth]);
+		return seeGain[0];
+	}
+
+	/**
+	 * Same as see(move) >= threshold, but stops as soon as the outcome is
+	 * known and needs no swap list
+	 */
+	boolean seeGE(int move, int threshold) {
+		final int to = Move.to(move);
+		final int movingPiece = Move.piece(move);
+		if (isCastling(move))
+			return threshold <= 0;
+
+		final int promotion = Move.promotion(move);
+		int swap = seeValue[Move.captured(move)] - threshold;
+		int attackerValue = seeValue[movingPiece];
+		if (promotion != EMPTY) {
+			swap += seeValue[promotion] - seeValue[W_PAWN];
+			attackerValue = seeValue[promotion];
+		}
+		if (swap < 0)
+			return false; // even keeping the capture is not enough
+		swap = attackerValue - swap;
+		if (swap <= 0)
+			return true; // even losing the moved piece is enough
+
+		long occupancy = occupied ^ Bitboard.bit(Move.from(move)) ^ Bitboard.bit(to);
+		if (Move.captured(move) != EMPTY && board[to] == EMPTY) // en passant
+			occupancy ^= Bitboard.bit(to + (movingPiece == W_PAWN ? 8 : -8));
+		long attackers = attackersTo(to, occupancy) & occupancy;
+		int color = (movingPiece < B_PAWN) ? BLACK : WHITE; // side to capture next
+		boolean result = true;
+		while (true) {
+			final long colorAttackers = attackers & colorPieces[color];
+			if (colorAttackers == 0)
+				break;
+			result = !result;
+			final int piece = leastValuablePiece(colorAttackers, color);
+			if (piece == W_KING || piece == B_KING)
+				// the king may only capture when nothing can take it back
+				return ((attackers & colorPieces[color ^ 1]) != 0) ? !result : result;
+			// swap is what the side that just captured still has to lose
+			swap = seeValue[piece] - swap;
+			if (swap < (result ? 1 : 0))
+				break;
+			occupancy ^= Bitboard.bit(Bitboard.first(colorAttackers & pieces[piece]));
+			attackers = revealAttackers(to, attackers, occupancy, piece);
+			color ^= 1;
+		}
+		return result;
+	}
+
+	// piece values for the exchanges and the move ordering, the king is worth
+	// more than everything ; pieceValue is the material, with kings at 0
+	static final int seeValue[] = { 0, 100, 325, 325, 500, 975, 10000,
+			100, 325, 325, 500, 975, 10000 };
+
+	private static boolean isCastling(int move) {
+		final int piece = Move.piece(move);
+		return (piece == W_KING || piece == B_KING)
+				&& Math.abs(Move.to(move) - Move.from(move)) == 2;
+	}
+
+	/**
+	 * @return the code of the least valuable piece among these attackers
+	 */
+	private int leastValuablePiece(long attackers, int color) {
+		final int offset = (color == WHITE) ? 0 : B_PAWN - W_PAWN;
+		for (int piece = W_PAWN + offset; piece < W_KING + offset; piece++)
+			if ((attackers & pieces[piece]) != 0)
+				return piece;
+		return W_KING + offset;
+	}
+
+	/**
+	 * Adds the sliders found behind a piece that just left the square, then
+	 * drops the pieces no longer on the board
+	 */
+	private long revealAttackers(int square, long attackers, long occupancy, int piece) {
+		final long queens = pieces[W_QUEEN] | pieces[B_QUEEN];
+		if (piece == W_PAWN || piece == B_PAWN || piece == W_BISHOP || piece == B_BISHOP
+				|| piece == W_QUEEN || piece == B_QUEEN)
+			attackers |= Bitboard.bishopAttacks(square, occupancy)
+					& (pieces[W_BISHOP] | pieces[B_BISHOP] | queens);
+		if (piece == W_ROOK || piece == B_ROOK || piece == W_QUEEN || piece == B_QUEEN)
+			attackers |= Bitboard.rookAttacks(square, occupancy)
+					& (pieces[W_ROOK] | pieces[B_ROOK] | queens);
+		return attackers & occupancy;
+	}
+
+	/**
+	 * @return the number of pieces of this kind on the board
+	 */
+	public int pieceCount(int piece) {
+		return Long.bitCount(pieces[piece]);
+	}
+
+	/**
+	 * @return the value in centipawns of the pieces of this color, king excluded
+	 */
+	public int material(int color) {
+		return material[color];
+	}
+
+	/**
+	 * @return OPENING_PHASE when all the pieces are on the board, down to 0
+	 * when only kings and pawns are left
+	 */
+	public int gamePhase() {
+		return Math.min(phase, OPENING_PHASE);
+	}
+
+	/**
+	 * @return true if no sequence of moves can lead to a checkmate : king
+	 * against king and a minor piece, or kings and bishops all on squares
+	 * of the same color
+	 */
+	public boolean isInsufficientMaterial() {
+		if ((pieces[W_PAWN] | pieces[B_PAWN] | pieces[W_ROOK] | pieces[B_ROOK]
+				| pieces[W_QUEEN] | pieces[B_QUEEN]) != 0)
+			return false;
+		final long knights = pieces[W_KNIGHT] | pieces[B_KNIGHT];
+		final long bishops = pieces[W_BISHOP] | pieces[B_BISHOP];
+		if (Long.bitCount(knights | bishops) <= 1)
+			return true;
+		return knights == 0
+				&& ((bishops & Bitboard.LIGHT_SQUARES) == 0 || (bishops & ~Bitboard.LIGHT_SQUARES) == 0);
+	}
+
+	public boolean isCheckmate() {
+		return isInCheck() && !hasLegalMove();
+	}
+
+	public boolean isStalemate() {
+		return !isInCheck() && !hasLegalMove();
+	}
+
+	/**
+	 * @return true if 50 moves of each side were played without a capture
+	 * or a pawn move
+	 */
+	public boolean isFiftyMoveDraw() {
+		return rule50moves >= 100;
+	}
+
+	/**
+	 * Only the moves made on this position since setFEN are known, and
+	 * positions before the last capture or pawn move can not repeat.
+	 * @return how many times this position occurred, the current one included
+	 */
+	public int repetitionCount() {
+		int count = 1;
+		final int last = Math.max(0, undoCount - rule50moves);
+		for (int i = undoCount - 2; i >= last; i -= 2)
+			if (keyHistory[i] == hashKey)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return how the game ends in this position, or NONE if it goes on.
+	 * Checkmate takes precedence over the draws by rule, as checkmate on the
+	 * move that reaches the fifty move limit wins.
+	 */
+	public Termination getTermination() {
+		if (!hasLegalMove())
+			return isInCheck() ? Termination.CHECKMATE : Termination.STALEMATE;
+		if (isInsufficientMaterial())
+			return Termination.INSUFFICIENT_MATERIAL;
+		if (isFiftyMoveDraw())
+			return Termination.FIFTY_MOVES;
+		if (repetitionCount() >= 3)
+			return Termination.THREEFOLD_REPETITION;
+		return Termination.NONE;
 	}
 
 	public boolean isEmpty(int sq) {
@@ -734,71 +1151,81 @@ public class Position implements Cloneable, java.io.Serializable {
 	}
 
 	int kingSquare(boolean color) {
-		// boolean color=(col==Position.WHITE);
-		for (int square = 0; square < 64; square++)
-			if (pieceAt(square) == (color ? W_KING : B_KING))
-				return square;
-
+		final long king = pieces[color ? W_KING : B_KING];
 		// TODO lancer erreur
-		// std::cout<<"KINGSQUARE ERROR"<<std::endl;
-		return -1;
+		return (king == 0) ? -1 : Bitboard.first(king);
 	}
 
 	public void makeMove(Move m) {
-		if (m.capturedPiece != EMPTY && board[m.to] == EMPTY) // Enpassant
-																// capture
-			board[m.to + (sideToPlay ? 8 : -8)] = EMPTY;
+		makeMove(m.getPacked());
+	}
 
-		board[m.from] = EMPTY;
-		board[m.to] = m.movingPiece;
+	/**
+	 * Plays a packed move
+	 */
+	void makeMove(int m) {
+		final int from = Move.from(m), to = Move.to(m);
+		final int movingPiece = Move.piece(m), capturedPiece = Move.captured(m);
+		discoverersValid = false;
+
+		// save what unmakeMove can not guess from the move
+		if (undoCount == undoStack.length) {
+			final long newStack[] = new long[undoCount * 2];
+			System.arraycopy(undoStack, 0, newStack, 0, undoCount);
+			undoStack = newStack;
+			final long newHistory[] = new long[undoCount * 2];
+			System.arraycopy(keyHistory, 0, newHistory, 0, undoCount);
+			keyHistory = newHistory;
+		}
+		keyHistory[undoCount] = hashKey;
+		undoStack[undoCount++] = board[to] | (castlingRights << 4)
+				| ((enPassantSquare + 1) << 8) | ((long) rule50moves << 16)
+				| ((long) fullMove << 32);
+
+		// castling and en passant keys are put back once updated
+		hashKey ^= Zobrist.CASTLING[castlingRights] ^ enPassantKey();
+
+		if (capturedPiece != EMPTY && board[to] == EMPTY) // Enpassant
+															// capture
+			removePiece(to + (sideToPlay ? 8 : -8));
+		else if (board[to] != EMPTY)
+			removePiece(to);
+
+		removePiece(from);
 
 		// Promotions
-		if (m.promotionPiece != EMPTY)
-			board[m.to] = m.promotionPiece;
+		putPiece((Move.promotion(m) != EMPTY) ? Move.promotion(m) : movingPiece, to);
 
 		// Also move the rook if castling
-		if (m.movingPiece == W_KING && m.from == E1 && m.to == G1) {
-			board[H1] = EMPTY;
-			board[F1] = W_ROOK;
+		if (movingPiece == W_KING && from == E1 && to == G1) {
+			removePiece(H1);
+			putPiece(W_ROOK, F1);
 		}
-		if (m.movingPiece == W_KING && m.from == E1 && m.to == C1) {
-			board[A1] = EMPTY;
-			board[D1] = W_ROOK;
+		if (movingPiece == W_KING && from == E1 && to == C1) {
+			removePiece(A1);
+			putPiece(W_ROOK, D1);
 		}
-		if (m.movingPiece == B_KING && m.from == E8 && m.to == G8) {
-			board[H8] = EMPTY;
-			board[F8] = B_ROOK;
+		if (movingPiece == B_KING && from == E8 && to == G8) {
+			removePiece(H8);
+			putPiece(B_ROOK, F8);
 		}
-		if (m.movingPiece == B_KING && m.from == E8 && m.to == C8) {
-			board[A8] = EMPTY;
-			board[D8] = B_ROOK;
+		if (movingPiece == B_KING && from == E8 && to == C8) {
+			removePiece(A8);
+			putPiece(B_ROOK, D8);
 		}
 
 		// Castling status update
-		if (m.movingPiece == W_KING)
-			kingSideCastlingAllowed[WHITE] = queenSideCastlingAllowed[WHITE] = false;
-		if ((m.movingPiece == W_ROOK && m.from == H1) || (m.to == H1))
-			kingSideCastlingAllowed[WHITE] = false;
-		if ((m.movingPiece == W_ROOK && m.from == A1) || (m.to == A1))
-			queenSideCastlingAllowed[WHITE] = false;
-
-		if (m.movingPiece == B_KING)
-			kingSideCastlingAllowed[BLACK] = queenSideCastlingAllowed[BLACK] = false;
-		if ((m.movingPiece == B_ROOK && m.from == H8) || (m.to == H8))
-			kingSideCastlingAllowed[BLACK] = false;
-		if ((m.movingPiece == B_ROOK && m.from == A8) || (m.to == A8))
-			queenSideCastlingAllowed[BLACK] = false;
+		castlingRights &= castlingMask[from] & castlingMask[to];
 
 		// enPassantSquare update
 		enPassantSquare = -1;
-		if (m.movingPiece == W_PAWN && (m.from - m.to) == 16)
-			enPassantSquare = m.to + 8;
-		if (m.movingPiece == B_PAWN && (m.to - m.from) == 16)
-			enPassantSquare = m.to - 8;
+		if (movingPiece == W_PAWN && (from - to) == 16)
+			enPassantSquare = to + 8;
+		if (movingPiece == B_PAWN && (to - from) == 16)
+			enPassantSquare = to - 8;
 
 		// rule50moves update
-		if (m.movingPiece == W_PAWN || m.movingPiece == B_PAWN
-				|| m.capturedPiece == W_PAWN || m.capturedPiece == B_PAWN)
+		if (movingPiece == W_PAWN || movingPiece == B_PAWN || capturedPiece != EMPTY)
 			rule50moves = 0;
 		else
 			rule50moves++;
@@ -808,147 +1235,556 @@ public class Position implements Cloneable, java.io.Serializable {
 			fullMove++;
 
 		sideToPlay = !sideToPlay;
+
+		hashKey ^= Zobrist.CASTLING[castlingRights] ^ enPassantKey()
+				^ Zobrist.WHITE_TO_PLAY;
+		if (hashSelfCheck)
+			checkHashKey();
+	}
+
+	/**
+	 * Takes back a move played by makeMove. Moves must be unmade in the
+	 * reverse order they were made.
+	 * @param m the last move played on this position
+	 */
+	public void unmakeMove(Move m) {
+		unmakeMove(m.getPacked());
+	}
+
+	/**
+	 * Takes back a packed move
+	 */
+	void unmakeMove(int m) {
+		final int from = Move.from(m), to = Move.to(m);
+		final int movingPiece = Move.piece(m);
+		final long undo = undoStack[--undoCount];
+		discoverersValid = false;
+
+		sideToPlay = !sideToPlay;
+
+		// Put the rook back if castling
+		if (movingPiece == W_KING && from == E1 && to == G1) {
+			removePiece(F1);
+			putPiece(W_ROOK, H1);
+		}
+		if (movingPiece == W_KING && from == E1 && to == C1) {
+			removePiece(D1);
+			putPiece(W_ROOK, A1);
+		}
+		if (movingPiece == B_KING && from == E8 && to == G8) {
+			removePiece(F8);
+			putPiece(B_ROOK, H8);
+		}
+		if (movingPiece == B_KING && from == E8 && to == C8) {
+			removePiece(D8);
+			putPiece(B_ROOK, A8);
+		}
+
+		removePiece(to);
+		putPiece(movingPiece, from);
+
+		final int captured = (int) (undo & 0xF);
+		if (captured != EMPTY)
+			putPiece(captured, to);
+		else if (Move.captured(m) != EMPTY) // Enpassant capture
+			putPiece(Move.captured(m), to + (sideToPlay ? 8 : -8));
+
+		castlingRights = (int) (undo >>> 4) & 0xF;
+		enPassantSquare = ((int) (undo >>> 8) & 0xFF) - 1;
+		rule50moves = (int) (undo >>> 16) & 0xFFFF;
+		fullMove = (int) (undo >>> 32);
+		hashKey = keyHistory[undoCount];
+		if (hashSelfCheck)
+			checkHashKey();
+	}
+
+	/**
+	 * @return the 64-bit Zobrist key of this position
+	 */
+	public long getHashKey() {
+		return hashKey;
+	}
+
+	/**
+	 * Computes the hash key from scratch
+	 */
+	long computeHashKey() {
+		long key = 0;
+		for (int square = 0; square < 64; square++)
+			if (board[square] != EMPTY)
+				key ^= Zobrist.PIECES[board[square]][square];
+		key ^= Zobrist.CASTLING[castlingRights] ^ enPassantKey();
+		if (sideToPlay)
+			key ^= Zobrist.WHITE_TO_PLAY;
+		return key;
+	}
+
+	private void checkHashKey() {
+		if (hashKey != computeHashKey())
+			throw new IllegalStateException("Incremental hash key differs from computed key:" + getFEN());
+	}
+
+	/**
+	 * The en passant file is only hashed if a pawn of the side to play can
+	 * capture, so that positions with the same legal moves share a key.
+	 */
+	private long enPassantKey() {
+		if (enPassantSquare == -1)
+			return 0;
+		final long capturers = pieces[sideToPlay ? W_PAWN : B_PAWN];
+		if ((Bitboard.PAWN_ATTACKS[sideToPlay ? BLACK : WHITE][enPassantSquare] & capturers) == 0)
+			return 0;
+		return Zobrist.EN_PASSANT[enPassantSquare % 8];
+	}
+
+	/**
+	 * Two positions are equal if they have the same pieces, side to play,
+	 * castling rights and en passant possibility. Move counters are ignored.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof Position))
+			return false;
+		final Position other = (Position) obj;
+		return hashKey == other.hashKey && sideToPlay == other.sideToPlay
+				&& castlingRights == other.castlingRights
+				&& enPassantKey() == other.enPassantKey()
+				&& Arrays.equals(board, other.board);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hashKey ^ (hashKey >>> 32));
 	}
 
 	public long perft(int depth) {
-		long nodes = 0;
+		return perft(depth, null);
+	}
+
+	/**
+	 * Hash perft : subtree counts are stored in the table and reused when
+	 * the same position is reached again by another move order.
+	 * @param table the transposition table to use, or null
+	 */
+	long perft(int depth, PerftTable table) {
+		if (depth == 0)
+			return 1;
+
+		final MoveList lists[] = new MoveList[depth];
+		for (int i = 0; i < depth; i++)
+			lists[i] = new MoveList();
+		return perft(depth, lists, table);
+	}
+
+	/**
+	 * @param lists one move list per remaining ply, reused by all the nodes
+	 */
+	private long perft(int depth, MoveList lists[], PerftTable table) {
 		if (depth == 0)
 			return 1;
 
-		final Vector<Move> moves = getLegalMoves();
-		for (final Move m : moves) {
-			final Position p = (Position) this.clone();
-			p.makeMove(m);
-			nodes += p.perft(depth - 1);
+		// depth 1 counts are cheaper to compute than to look up
+		final boolean useTable = table != null && depth > 1;
+		if (useTable) {
+			final long nodes = table.probe(hashKey, depth);
+			if (nodes >= 0)
+				return nodes;
 		}
 
+		final MoveList list = lists[depth - 1];
+		generateLegalMoves(list);
+		// the generator is fully legal : each move is one leaf
+		if (depth == 1 && perftBulkCounting)
+			return list.size();
+
+		long nodes = 0;
+		for (int i = 0; i < list.size(); i++) {
+			makeMove(list.get(i));
+			nodes += perft(depth - 1, lists, table);
+			unmakeMove(list.get(i));
+		}
+
+		if (useTable)
+			table.store(hashKey, depth, nodes);
 		return nodes;
 	}
 
+	/**
+	 * Single threaded perft that reports the count of each root move
+	 * @return one "move: count" line per root move, then the total
+	 */
+	String divide(int depth) {
+		final StringBuilder s = new StringBuilder();
+		final MoveList lists[] = new MoveList[Math.max(1, depth)];
+		for (int i = 0; i < lists.length; i++)
+			lists[i] = new MoveList();
+		final MoveList root = new MoveList();
+		long nodes = (depth == 0) ? 1 : 0;
+		generateLegalMoves(root);
+		for (int i = 0; i < root.size() && depth > 0; i++) {
+			makeMove(root.get(i));
+			final long count = perft(depth - 1, lists, null);
+			unmakeMove(root.get(i));
+			nodes += count;
+			s.append(Move.toString(root.get(i))).append(": ").append(count).append('\n');
+		}
+		s.append("Nodes: ").append(nodes).append('\n');
+		return s.toString();
+	}
+
 	public int pieceAt(int square) {
 		return board[square];
 	}
 
+	/**
+	 * Sets this position from a FEN string. The move counters may be
+	 * omitted (as in EPD), they then default to "0 1".
+	 * @return false if the FEN is invalid ; the position is then unchanged
+	 */
 	public boolean setFEN(String fen) {
-		// regular expression test
-		final Matcher m = fenPattern.matcher(fen);
-		if (!m.matches()) {
+		try {
+			parseFEN(fen);
+			return true;
+		} catch (final IllegalArgumentException e) {
 			// TODO
-			System.out.println("fen does not match:" + fen);
-			// Log.e("Position","fen does not match:"+fen);
+			System.out.println(e.getMessage());
+			// Log.e("Position",e.getMessage());
 			return false;
 		}
+	}
 
-		// for(int i=1;i<=m.groupCount();i++)
-		// Log.d("Position",m.group(i));
+	/**
+	 * Single pass FEN parser.
+	 * @throws IllegalArgumentException with the column of the first error
+	 */
+	void parseFEN(String fen) {
+		final int length = fen.length();
+		final int newBoard[] = new int[64];
+		int i = 0;
+
+		// pieces, from a8 to h1
+		int rank = 0, file = 0;
+		while (true) {
+			if (i >= length)
+				throw fenError(fen, i, "unexpected end");
+			final char c = fen.charAt(i);
+			if (c == '/' || c == ' ') {
+				if (file != 8)
+					throw fenError(fen, i, "rank " + (8 - rank) + " has " + file + " squares");
+				if ((c == ' ') != (rank == 7))
+					throw fenError(fen, i, (c == ' ') ? "8 ranks expected" : "too many ranks");
+				i++;
+				if (c == ' ')
+					break;
+				rank++;
+				file = 0;
+			} else if (c >= '1' && c <= '8') {
+				file += c - '0';
+				if (file > 8)
+					throw fenError(fen, i, "rank " + (8 - rank) + " has more than 8 squares");
+				i++;
+			} else {
+				final int piece = FEN_PIECES.indexOf(c);
+				if (piece <= EMPTY)
+					throw fenError(fen, i, "unknown piece '" + c + "'");
+				if (file >= 8)
+					throw fenError(fen, i, "rank " + (8 - rank) + " has more than 8 squares");
+				if ((piece == W_PAWN || piece == B_PAWN) && (rank == 0 || rank == 7))
+					throw fenError(fen, i, "pawn on the first or last rank");
+				newBoard[rank * 8 + file++] = piece;
+				i++;
+			}
+		}
 
-		// Initialisation du tableau de pieces (board[64])
-		final String boardString = m.group(1);
-		int square = 0;
-		for (int i = 0; i < 64; i++)
-			board[i] = EMPTY;
-		for (int i = 0; i < boardString.length() && square < 64; i++)
-			switch (boardString.charAt(i)) {
-			case 'P':
-				board[square++] = W_PAWN;
-				break;
-			case 'N':
-				board[square++] = W_KNIGHT;
-				break;
-			case 'B':
-				board[square++] = W_BISHOP;
-				break;
-			case 'R':
-				board[square++] = W_ROOK;
-				break;
-			case 'Q':
-				board[square++] = W_QUEEN;
-				break;
-			case 'K':
-				board[square++] = W_KING;
-				break;
-			case 'p':
-				board[square++] = B_PAWN;
-				break;
-			case 'n':
-				board[square++] = B_KNIGHT;
-				break;
-			case 'b':
-				board[square++] = B_BISHOP;
-				break;
-			case 'r':
-				board[square++] = B_ROOK;
-				break;
-			case 'q':
-				board[square++] = B_QUEEN;
-				break;
-			case 'k':
-				board[square++] = B_KING;
-				break;
-			case '1':
-				square++;
-				break;
-			case '2':
-				square += 2;
-				break;
-			case '3':
-				square += 3;
-				break;
-			case '4':
-				square += 4;
-				break;
-			case '5':
-				square += 5;
-				break;
-			case '6':
-				square += 6;
-				break;
-			case '7':
-				square += 7;
-				break;
-			case '8':
-				square += 8;
-				break;
-			case '/':
-				if ((square % 8) != 0)
-					square += (8 - (square % 8));
-				break;
-			default:
-				// TODO
-				System.out.println("Unknown value in Position.setFEN:"
-						+ boardString.charAt(i));
-				// Log.e("Position","Unknown value in Position.setFEN:"+boardString.charAt(i));
-				return false;
+		// side to play
+		final char side = (i < length) ? fen.charAt(i++) : ' ';
+		if (side != 'w' && side != 'b')
+			throw fenError(fen, i - 1, "side to play must be 'w' or 'b'");
+		i = skipSpace(fen, i);
+
+		// castling rights
+		int newCastlingRights = 0;
+		if (i < length && fen.charAt(i) == '-')
+			i++;
+		else
+			for (; i < length && fen.charAt(i) != ' '; i++) {
+				final int right = "KQkq".indexOf(fen.charAt(i));
+				if (right < 0 || (newCastlingRights & (1 << right)) != 0)
+					throw fenError(fen, i, "invalid castling right '" + fen.charAt(i) + "'");
+				newCastlingRights |= 1 << right;
 			}
+		i = skipSpace(fen, i);
+
+		// en passant
+		int newEnPassantSquare = -1;
+		if (i < length && fen.charAt(i) == '-')
+			i++;
+		else {
+			if (i + 1 >= length || fen.charAt(i) < 'a' || fen.charAt(i) > 'h'
+					|| fen.charAt(i + 1) != (side == 'w' ? '6' : '3'))
+				throw fenError(fen, i, "invalid en passant square");
+			newEnPassantSquare = (fen.charAt(i) - 'a') + (side == 'w' ? A6 : A3);
+			i += 2;
+		}
 
-		// Determination de la couleur qui a le trait
-		// System.out.println("stp:"+m.group(2));
-		sideToPlay = ((m.group(2).equals("w")) ? true : false);
+		// move counters, optional
+		int newRule50moves = 0, newFullMove = 1;
+		if (i < length)
+			i = skipSpace(fen, i);
+		if (i < length) {
+			final int start = i;
+			for (; i < length && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; i++)
+				newRule50moves = newRule50moves * 10 + (fen.charAt(i) - '0');
+			if (i == start || i - start > 4)
+				throw fenError(fen, start, "invalid halfmove clock");
+			i = skipSpace(fen, i);
+			newFullMove = 0;
+			final int fullMoveStart = i;
+			for (; i < length && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; i++)
+				newFullMove = newFullMove * 10 + (fen.charAt(i) - '0');
+			if (i == fullMoveStart || i - fullMoveStart > 5)
+				throw fenError(fen, fullMoveStart, "invalid fullmove number");
+			while (i < length && fen.charAt(i) == ' ')
+				i++;
+			if (i != length)
+				throw fenError(fen, i, "unexpected characters");
+		}
 
-		// Castle
-		kingSideCastlingAllowed[1] = m.group(3).contains("K") ? true : false;
-		queenSideCastlingAllowed[1] = m.group(3).contains("Q") ? true : false;
-		kingSideCastlingAllowed[0] = m.group(3).contains("k") ? true : false;
-		queenSideCastlingAllowed[0] = m.group(3).contains("q") ? true : false;
+		// one and only one king of each color (move generation needs them)
+		final int count[] = new int[B_KING + 1];
+		for (int square = 0; square < 64; square++)
+			count[newBoard[square]]++;
+		if (count[W_KING] != 1 || count[B_KING] != 1)
+			throw fenError(fen, 0, "each side must have exactly one king");
+		final String material = materialError(count);
+		if (material != null)
+			throw fenError(fen, 0, material);
+
+		set(newBoard, side == 'w', newCastlingRights, newEnPassantSquare,
+				newRule50moves, newFullMove);
+	}
 
-		// enpassant
-		enPassantSquare = -1;
-		for (int i = 0; i < 64; i++)
-			if (m.group(4).contains(squareName[i]))
-				enPassantSquare = i;
+	/**
+	 * The move lists (MoveList.MAX_MOVES) and the SEE swap list are sized for
+	 * the material of a real game : at most 16 men and 8 pawns per side, and
+	 * no more promoted pieces than missing pawns.
+	 * @param count number of pieces of each code
+	 * @return why the board cannot come from a game, or null
+	 */
+	private static String materialError(int count[]) {
+		for (int pawn = W_PAWN; pawn <= B_PAWN; pawn += B_PAWN - W_PAWN) {
+			final String side = (pawn == W_PAWN) ? "white" : "black";
+			int men = 0;
+			for (int piece = pawn; piece <= pawn + W_KING - W_PAWN; piece++)
+				men += count[piece];
+			if (men > 16)
+				return side + " has more than 16 men";
+			if (count[pawn] > 8)
+				return side + " has more than 8 pawns";
+			final int promoted = Math.max(0, count[pawn + W_KNIGHT - W_PAWN] - 2)
+					+ Math.max(0, count[pawn + W_BISHOP - W_PAWN] - 2)
+					+ Math.max(0, count[pawn + W_ROOK - W_PAWN] - 2)
+					+ Math.max(0, count[pawn + W_QUEEN - W_PAWN] - 1);
+			if (count[pawn] + promoted > 8)
+				return side + " has more promoted pieces than missing pawns";
+		}
+		return null;
+	}
 
-		// 50moves
-		rule50moves = Integer.parseInt(m.group(5));
+	/**
+	 * Replaces the whole position ; the move history is cleared. A castling
+	 * right is dropped unless the king and the rook are on their squares,
+	 * otherwise castling would move a rook that is not there.
+	 */
+	private void set(int newBoard[], boolean newSideToPlay, int newCastlingRights,
+			int newEnPassantSquare, int newRule50moves, int newFullMove) {
+		if (newBoard != board) // read() decodes in place
+			System.arraycopy(newBoard, 0, board, 0, 64);
+		sideToPlay = newSideToPlay;
+		if (board[E1] != W_KING || board[H1] != W_ROOK)
+			newCastlingRights &= ~WHITE_KINGSIDE;
+		if (board[E1] != W_KING || board[A1] != W_ROOK)
+			newCastlingRights &= ~WHITE_QUEENSIDE;
+		if (board[E8] != B_KING || board[H8] != B_ROOK)
+			newCastlingRights &= ~BLACK_KINGSIDE;
+		if (board[E8] != B_KING || board[A8] != B_ROOK)
+			newCastlingRights &= ~BLACK_QUEENSIDE;
+		castlingRights = newCastlingRights;
+		enPassantSquare = newEnPassantSquare;
+		rule50moves = newRule50moves;
+		fullMove = (newFullMove == 0) ? 1 : newFullMove;
+		updateBitboards();
+		undoCount = 0;
+		hashKey = computeHashKey();
+	}
 
-		// fullMove
-		fullMove = Integer.parseInt(m.group(6));
+	/**
+	 * Writes this position in a compact binary form (at most MAX_BINARY_SIZE
+	 * bytes) : the version byte, the occupancy bitboard (8 bytes), the code of
+	 * each piece in 4 bits in square order, and an int holding the side to
+	 * play (bit 0), the castling rights (1-4), the en passant file + 1 (5-8),
+	 * the halfmove clock (9-16) and the fullmove number (17-31).
+	 * The move history is not written, and the counters are capped : a
+	 * halfmove clock above 255 (far beyond the fifty-move rule) reads back as
+	 * 255, a fullmove number above 32767 as 32767.
+	 */
+	void write(ByteBuffer buffer) {
+		buffer.put((byte) BINARY_VERSION);
+		buffer.putLong(occupied);
+		int pending = -1;
+		for (long bb = occupied; bb != 0; bb &= bb - 1) {
+			final int piece = board[Bitboard.first(bb)];
+			if (pending < 0)
+				pending = piece << 4;
+			else {
+				buffer.put((byte) (pending | piece));
+				pending = -1;
+			}
+		}
+		if (pending >= 0)
+			buffer.put((byte) pending);
+		buffer.putInt((sideToPlay ? 1 : 0) | (castlingRights << 1)
+				| ((enPassantAllowed() ? (enPassantSquare & 7) + 1 : 0) << 5)
+				| (Math.min(rule50moves, 0xFF) << 9)
+				| (Math.min(fullMove, 0x7FFF) << 17));
+	}
 
-		// TODO check pas de pions en bout de course (cause stack overflow dans
-		// movegen)
-		// TODO check qu'il y a au moins et un seul roi (cause stack ov dans
-		// kingsquare)
+	/**
+	 * Reads a position written by write(ByteBuffer) ; on error the position
+	 * is unchanged
+	 * @throws IllegalArgumentException if the data is not a valid position
+	 * @throws java.nio.BufferUnderflowException if the data is truncated
+	 */
+	void read(ByteBuffer buffer) {
+		final int version = buffer.get();
+		if (version != BINARY_VERSION)
+			throw new IllegalArgumentException("Unknown position encoding version " + version);
+		final long newOccupied = buffer.getLong();
+		final int start = buffer.position();
+
+		// first pass : check the pieces, the position is not changed yet
+		final int count[] = pieceCount;
+		Arrays.fill(count, 0);
+		int data = 0;
+		boolean high = true;
+		for (long bb = newOccupied; bb != 0; bb &= bb - 1) {
+			if (high)
+				data = buffer.get();
+			final int piece = (high ? data >> 4 : data) & 0xF;
+			high = !high;
+			final int square = Bitboard.first(bb);
+			if (piece == EMPTY || piece > B_KING)
+				throw new IllegalArgumentException("Invalid piece code " + piece);
+			if ((piece == W_PAWN || piece == B_PAWN) && (square < A7 || square >= A1))
+				throw new IllegalArgumentException("Pawn on the first or last rank");
+			count[piece]++;
+		}
+		if (count[W_KING] != 1 || count[B_KING] != 1)
+			throw new IllegalArgumentException("Each side must have exactly one king");
+		final String material = materialError(count);
+		if (material != null)
+			throw new IllegalArgumentException(material);
+		final int state = buffer.getInt();
+		final boolean newSideToPlay = (state & 1) != 0;
+		final int file = ((state >>> 5) & 0xF) - 1;
+		if (file > 7)
+			throw new IllegalArgumentException("Invalid en passant file " + file);
+
+		// second pass : decode the pieces straight into the board
+		Arrays.fill(board, EMPTY);
+		int index = start;
+		high = true;
+		for (long bb = newOccupied; bb != 0; bb &= bb - 1) {
+			if (high)
+				data = buffer.get(index++);
+			board[Bitboard.first(bb)] = (high ? data >> 4 : data) & 0xF;
+			high = !high;
+		}
+		set(board, newSideToPlay, (state >>> 1) & 0xF,
+				(file < 0) ? -1 : file + (newSideToPlay ? A6 : A3),
+				(state >>> 9) & 0xFF, state >>> 17);
+	}
 
-		return true;
+	/**
+	 * Java serialization uses the binary encoding : the move history is lost
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_BINARY_SIZE);
+		write(buffer);
+		out.writeByte(buffer.position());
+		out.write(buffer.array(), 0, buffer.position());
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		final byte data[] = new byte[in.readUnsignedByte()];
+		in.readFully(data);
+		allocate();
+		try {
+			read(ByteBuffer.wrap(data));
+		} catch (final RuntimeException e) {
+			throw new java.io.InvalidObjectException(e.getMessage());
+		}
+	}
+
+	private static int skipSpace(String fen, int i) {
+		if (i >= fen.length() || fen.charAt(i) != ' ')
+			throw fenError(fen, i, "space expected");
+		while (i < fen.length() && fen.charAt(i) == ' ')
+			i++;
+		return i;
+	}
+
+	private static IllegalArgumentException fenError(String fen, int column, String message) {
+		return new IllegalArgumentException("Invalid FEN at column " + column
+				+ ": " + message + " (" + fen + ")");
+	}
+
+	/**
+	 * Puts a piece on an empty square
+	 */
+	private void putPiece(int piece, int square) {
+		final long b = Bitboard.bit(square);
+		board[square] = piece;
+		pieces[piece] |= b;
+		colorPieces[(piece >= B_PAWN) ? BLACK : WHITE] |= b;
+		occupied |= b;
+		hashKey ^= Zobrist.PIECES[piece][square];
+		material[(piece >= B_PAWN) ? BLACK : WHITE] += pieceValue[piece];
+		phase += phaseWeight[piece];
+	}
+
+	/**
+	 * Removes the piece standing on a square
+	 */
+	private void removePiece(int square) {
+		final long b = ~Bitboard.bit(square);
+		final int piece = board[square];
+		board[square] = EMPTY;
+		pieces[piece] &= b;
+		colorPieces[(piece >= B_PAWN) ? BLACK : WHITE] &= b;
+		occupied &= b;
+		hashKey ^= Zobrist.PIECES[piece][square];
+		material[(piece >= B_PAWN) ? BLACK : WHITE] -= pieceValue[piece];
+		phase -= phaseWeight[piece];
+	}
+
+	/**
+	 * Rebuilds all the bitboards and counters from the board array
+	 */
+	private void updateBitboards() {
+		discoverersValid = false;
+		for (int i = 0; i < pieces.length; i++)
+			pieces[i] = 0;
+		colorPieces[WHITE] = colorPieces[BLACK] = occupied = 0;
+		material[WHITE] = material[BLACK] = phase = 0;
+		for (int square = 0; square < 64; square++)
+			if (board[square] != EMPTY)
+				putPiece(board[square], square);
 	}
 
 	public boolean sideToPlay() {
@@ -33,6 +33,7 @@ import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Observable;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.http.util.ByteArrayBuffer;
 
@@ -65,7 +66,29 @@ public class UCIEngine extends Player implements Runnable {
 
 	public static final int BESTLINE_MESSAGE = 0, CURRENTMOVE_MESSAGE = 1,
 			DEPTH_MESSAGE = 2, MOVENUMBER_MESSAGE = 3, NODES_MESSAGE = 4,
-			NPS_MESSAGE = 5, NAME_MESSAGE = 6, BESTMOVE_MESSAGE=7, SCORE_MESSAGE=8, TIME_MESSAGE=9, AUTHOR_MESSAGE=10;
+			NPS_MESSAGE = 5, NAME_MESSAGE = 6, BESTMOVE_MESSAGE=7, SCORE_MESSAGE=8, TIME_MESSAGE=9, AUTHOR_MESSAGE=10,
+			ANALYSIS_MESSAGE=11;
+
+	/**
+	 * Depth, score and best line of one info line, with the hash key of the
+	 * searched position
+	 */
+	public static final class SearchInfo {
+		public final long key;
+		public final int depth, score;
+		public final String bestLine;
+
+		SearchInfo(long key, int depth, int score, String bestLine) {
+			this.key = key;
+			this.depth = depth;
+			this.score = score;
+			this.bestLine = bestLine;
+		}
+	}
+
+	// hash keys of the positions sent with "go", until their bestmove is
+	// received : the engine output belongs to the oldest one
+	private final ConcurrentLinkedQueue<Long> searchKeys = new ConcurrentLinkedQueue<Long>();
 
 	private Process engineProcess = null;
 	private InputStream in;
@@ -409,14 +432,45 @@ public class UCIEngine extends Player implements Runnable {
 				message.what = TIME_MESSAGE;
 				refreshHandler.sendMessage(message);
 			}
+
+			// depth, exact score and line of this info line, for the searched position
+			final int depthIndex = words.indexOf("depth"), scoreIndex = words.indexOf("cp"),
+					lineIndex = words.indexOf("pv");
+			final Long key = searchKeys.peek();
+			if (key != null && depthIndex > -1 && depthIndex < maxIndex && scoreIndex > -1
+					&& scoreIndex < maxIndex && lineIndex > -1 && lineIndex < maxIndex
+					&& !words.contains("lowerbound") && !words.contains("upperbound")) {
+				try {
+					final Message message = new Message();
+					message.obj = new SearchInfo(key, Integer.parseInt(words.get(depthIndex + 1)),
+							Integer.parseInt(words.get(scoreIndex + 1)), words.get(lineIndex + 1));
+					message.what = ANALYSIS_MESSAGE;
+					refreshHandler.sendMessage(message);
+				} catch (final NumberFormatException e) {
+					Log.e("uciengine", "invalid info: " + commandString);
+				}
+			}
 			
 
 		}
 		else if (words.get(0).equals("bestmove")) {
+			final Long key=searchKeys.poll(); //this search is over
 			if(words.size()>1)
 			{
-				Position p=game.getCurrentPosition();
-				Move move=new Move(words.get(1),p); //TODO check if move is legal (send exception in move contructor)
+				// this runs on the engine thread : read the game from its snapshot
+				final GameSnapshot snapshot=game.getSnapshot();
+				if(key==null || key.longValue()!=snapshot.getHashKey())
+				{
+					Log.d("uciengine", "bestmove of a previous position: "+words.get(1));
+					return;
+				}
+				Position p=snapshot.getCurrentPosition();
+				Move move=new Move(words.get(1),p);
+				if(!p.isLegal(move.getPacked()))
+				{
+					Log.e("uciengine", "illegal bestmove: "+words.get(1));
+					return;
+				}
 				//Log.d("playing move","uci:"+)
 				//game.playMove(m);
 				final Message message = new Message();
@@ -519,6 +573,7 @@ public class UCIEngine extends Player implements Runnable {
 			// TODO Auto-generated catch block
 			//e.printStackTrace();
 		}
+		searchKeys.clear(); //the searches of the previous process are over
 		launchProcess();
 	}
 
@@ -568,14 +623,22 @@ public class UCIEngine extends Player implements Runnable {
 
 	public void update(Observable observable, Object data) {
 		// TODO Auto-generated method stub
-		send(game.toString());
-		boolean side=game.getCurrentPosition().sideToPlay();
+		// this runs on the UI thread : the game keeps its position command
+		// up to date move by move, the snapshot tells the searched position
+		final String position=game.toString();
+		final GameSnapshot snapshot=game.getSnapshot();
+		send(position);
+		boolean side=snapshot.sideToPlay();
 		if((role==Role.WHITE_PLAYER && side) ||	(role==Role.BLACK_PLAYER && !side))
+		{
+			searchKeys.add(snapshot.getHashKey());
 			send("go movetime 5000");
+		}
 		else if(role==Role.OBSERVER)
 		{
 			send("stop");
-			send(game.toString());
+			send(position);
+			searchKeys.add(snapshot.getHashKey());
 			send("go infinite");
 		}
 	}
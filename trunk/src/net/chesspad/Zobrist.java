@@ -0,0 +1,64 @@
+/*
+ *   Copyright (C) 2011 Jean-Francois Romang <info at chesspad dot net>
+ *   This file is part of ChessPad.
+ *
+ *   ChessPad is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   ChessPad is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with ChessPad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chesspad;
+
+/**
+ * Random keys used to compute the 64-bit hash key of a Position.
+ * The keys come from a fixed seed so that hash keys are the same on every run.
+ * @author Jean-Francois Romang <info at chesspad dot net>
+ */
+final class Zobrist {
+
+	static final long PIECES[][] = new long[Position.B_KING + 1][64];
+	static final long CASTLING[] = new long[16]; // indexed by castling rights
+	static final long EN_PASSANT[] = new long[8]; // indexed by file
+	static final long WHITE_TO_PLAY;
+
+	private static long seed = 0x2545F4914F6CDD1DL;
+
+	static {
+		for (int piece = Position.W_PAWN; piece <= Position.B_KING; piece++)
+			for (int square = 0; square < 64; square++)
+				PIECES[piece][square] = next();
+
+		// each castling right has its own key, combinations are xored
+		final long rights[] = { next(), next(), next(), next() };
+		for (int i = 0; i < 16; i++)
+			for (int bit = 0; bit < 4; bit++)
+				if ((i & (1 << bit)) != 0)
+					CASTLING[i] ^= rights[bit];
+
+		for (int file = 0; file < 8; file++)
+			EN_PASSANT[file] = next();
+		WHITE_TO_PLAY = next();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * xorshift64* pseudo random generator
+	 */
+	private static long next() {
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return seed * 0x2545F4914F6CDD1DL;
+	}
+}